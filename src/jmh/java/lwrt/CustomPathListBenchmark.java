@@ -0,0 +1,57 @@
+package lwrt;
+
+import org.openjdk.jmh.annotations.*;
+import util.BenchmarkFiles;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomPathListBenchmark {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final String[] FOLDERS =
+        {"resource/ui", "scripts", "cfg", "materials/skybox", "materials/vgui", "sound/ui"};
+
+    @Param({"1000", "20000"})
+    public int files;
+
+    private Path dir;
+    private Path custom;
+    private CustomPathList list;
+
+    @Setup
+    public void setup() throws IOException {
+        log.setLevel(java.util.logging.Level.WARNING);
+        dir = BenchmarkFiles.createTempDir("custompath");
+        custom = dir.resolve("custom/benchmark_hud");
+        for (int i = 0; i < files; i++) {
+            String folder = FOLDERS[i % FOLDERS.length];
+            BenchmarkFiles.write(custom.resolve(folder + "/file" + i + (folder.equals("cfg") ? ".cfg" : ".res")), 0);
+        }
+        SettingsManager settings = new SettingsManager(dir.resolve("settings.lwf").toString());
+        settings.setTfPath(dir);
+        // the command line is only used to list vpk contents
+        list = new CustomPathList(settings, null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public CustomPath update() {
+        CustomPath cp = new CustomPath(custom);
+        list.update(cp);
+        return cp;
+    }
+
+}
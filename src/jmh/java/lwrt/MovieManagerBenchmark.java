@@ -0,0 +1,57 @@
+package lwrt;
+
+import org.openjdk.jmh.annotations.*;
+import util.BenchmarkFiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MovieManagerBenchmark {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final String[] PREFIXES = {"a1", "b2", "c3", "d4", "e5"};
+
+    @Param({"100000"})
+    public int frames;
+
+    private Path dir;
+    private MovieManager manager;
+
+    @Setup
+    public void setup() throws IOException {
+        log.setLevel(java.util.logging.Level.WARNING);
+        dir = BenchmarkFiles.createTempDir("movies");
+        int perSegment = frames / PREFIXES.length;
+        for (int i = 0; i < frames; i++) {
+            String name = String.format("%s_%04d.tga", PREFIXES[i / perSegment % PREFIXES.length], i % perSegment);
+            Files.createFile(dir.resolve(name));
+        }
+        // movieOffset writes its output to the cfg folder of the working directory
+        Files.createDirectories(Paths.get("cfg"));
+        SettingsManager settings = new SettingsManager(dir.resolve("settings.lwf").toString());
+        settings.setMoviePath(dir);
+        manager = new MovieManager(settings);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(dir);
+        BenchmarkFiles.delete(Paths.get("cfg"));
+    }
+
+    @Benchmark
+    public void movieOffset() throws IOException {
+        manager.movieOffset();
+    }
+
+}
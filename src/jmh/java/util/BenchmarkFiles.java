@@ -0,0 +1,49 @@
+package util;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Helpers to create and remove the synthetic files used by the benchmarks. Files are created
+ * below the working directory of the benchmark run so they land on the disk being measured.
+ */
+public class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    public static Path createTempDir(String prefix) throws IOException {
+        Path base = Paths.get("data").toAbsolutePath();
+        Files.createDirectories(base);
+        return Files.createTempDirectory(base, prefix);
+    }
+
+    public static void write(Path file, int size) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+    }
+
+    public static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                file.toFile().setWritable(true);
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+    }
+
+}
@@ -0,0 +1,68 @@
+package util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DemoHeaderBenchmark {
+
+    private Path dir;
+    private Path demo;
+    private byte[] header;
+
+    @Setup
+    public void setup() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(DemoHeader.SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putString(buffer, DemoHeader.STAMP, 8);
+        buffer.putInt(3);
+        buffer.putInt(24);
+        putString(buffer, "Benchmark Server", 260);
+        putString(buffer, "Benchmark Player", 260);
+        putString(buffer, "cp_badlands", 260);
+        putString(buffer, "tf", 260);
+        buffer.putFloat(1800f);
+        buffer.putInt(120000);
+        buffer.putInt(60000);
+        buffer.putInt(0);
+        header = buffer.array();
+        dir = BenchmarkFiles.createTempDir("demoheader");
+        demo = dir.resolve("benchmark.dem");
+        Files.write(demo, header);
+    }
+
+    private static void putString(ByteBuffer buffer, String str, int length) {
+        byte[] bytes = str.getBytes(Charset.forName("UTF-8"));
+        buffer.put(bytes);
+        buffer.position(buffer.position() + length - bytes.length);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public DemoHeader parseBuffer() throws IOException {
+        return DemoHeader.read(ByteBuffer.wrap(header));
+    }
+
+    @Benchmark
+    public String demoPreview() throws IOException {
+        try (DemoPreview preview = new DemoPreview(demo)) {
+            return preview.toString();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParallelCopierBenchmark {
+
+    @Param({"1000", "5000"})
+    public int files;
+
+    @Param({"16384"})
+    public int fileSize;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path dir;
+    private Path source;
+    private Path target;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = BenchmarkFiles.createTempDir("copydir");
+        source = dir.resolve("custom");
+        // mimic a custom folder: a few dozen folders with many small materials and scripts
+        for (int i = 0; i < files; i++) {
+            BenchmarkFiles.write(source.resolve("materials/folder" + (i % 40) + "/file" + i + ".vtf"),
+                fileSize);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareTarget() throws IOException {
+        target = dir.resolve("target");
+        BenchmarkFiles.delete(target);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public Path copy() throws IOException, InterruptedException {
+        new ParallelCopier(threads).copy(source, target, false, null);
+        return target;
+    }
+
+}
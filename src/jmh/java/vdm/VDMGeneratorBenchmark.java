@@ -0,0 +1,74 @@
+package vdm;
+
+import lwrt.SettingsManager;
+import org.openjdk.jmh.annotations.*;
+import util.BenchmarkFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VDMGeneratorBenchmark {
+
+    private static final Logger log = Logger.getLogger("lawena");
+
+    @Param({"1000", "10000"})
+    public int ticks;
+
+    @Param({"20"})
+    public int demos;
+
+    private Path dir;
+    private VDMGenerator generator;
+
+    @Setup
+    public void setup() throws IOException {
+        log.setLevel(java.util.logging.Level.WARNING);
+        dir = BenchmarkFiles.createTempDir("vdm");
+        // templates are written to the cfg folder of the working directory
+        Files.createDirectories(Paths.get("cfg"));
+        SettingsManager settings = new SettingsManager(dir.resolve("settings.lwf").toString());
+        settings.setTfPath(dir);
+        settings.setMoviePath(dir.resolve("movies"));
+        List<Tick> list = new ArrayList<>();
+        for (int i = 0; i < ticks; i++) {
+            int demo = i % demos;
+            int start = 1000 + (i / demos) * 2000;
+            String name = "demo" + demo + ".dem";
+            Tick tick = new Tick(new File(dir.toFile(), name), name, start, start + 1000);
+            if (i % 10 == 0) {
+                tick.setType(Tick.EXEC_RECORD_SEGMENT);
+                tick.setTemplate(Tick.CAM_IMPORT_TEMPLATE);
+            } else {
+                tick.setType(Tick.RECORD_SEGMENT);
+                tick.setTemplate(Tick.NO_TEMPLATE);
+            }
+            list.add(tick);
+        }
+        generator = new VDMGenerator(list, settings);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(dir);
+        BenchmarkFiles.delete(Paths.get("cfg"));
+    }
+
+    @Benchmark
+    public List<Path> generate() throws IOException {
+        return generator.generate();
+    }
+
+}
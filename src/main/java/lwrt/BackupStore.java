@@ -0,0 +1,687 @@
+package lwrt;
+
+import util.ParallelZipArchiver;
+import util.Util;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps backups of the user's cfg and custom folders as snapshots that share their contents. Files
+ * are cut in chunks at boundaries chosen by their contents, and each chunk is stored once under its
+ * SHA-256 hash, so a snapshot only adds the chunks that changed since the previous ones, even when
+ * data is inserted in the middle of a file. A snapshot is a small manifest listing each file with
+ * its chunks. Files that kept their size and modification time since the last snapshot reuse its
+ * chunks without being read.
+ * <p>
+ * Chunks no longer used by any snapshot are deleted by {@link #collect()}.
+ */
+class BackupStore {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final int MAGIC = 0x4c57424b; // LWBK
+    private static final int VERSION = 1;
+    private static final String SNAPSHOT_EXTENSION = ".lws";
+    private static final int MIN_CHUNK = 256 * 1024;
+    private static final int MAX_CHUNK = 4 * 1024 * 1024;
+    // cuts about every 1 MB past the minimum
+    private static final int CHUNK_MASK = (1 << 20) - 1;
+    private static final int[] GEAR = new int[256];
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final long PROGRESS_INTERVAL_MILLIS = 100;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static {
+        // must never change, or files would be cut differently and stop sharing chunks
+        Random random = new Random(MAGIC);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextInt();
+        }
+    }
+
+    private final Path root;
+    private final Path chunks;
+    private final Path snapshots;
+    private final int threads;
+
+    /**
+     * @param root    the folder of the store
+     * @param threads the number of files read at the same time, or 0 to use the processors
+     */
+    public BackupStore(Path root, int threads) {
+        this.root = root;
+        this.chunks = root.resolve("chunks");
+        this.snapshots = root.resolve("snapshots");
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String hex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private static int fill(InputStream in, byte[] buf, int from) throws IOException {
+        int length = from;
+        int n;
+        while (length < buf.length && (n = in.read(buf, length, buf.length - length)) >= 0) {
+            length += n;
+        }
+        return length;
+    }
+
+    /**
+     * Finds where the chunk starting at the beginning of a buffer ends.
+     *
+     * @param buf    the data
+     * @param length the number of bytes in the buffer
+     * @return the length of the chunk
+     */
+    private static int cut(byte[] buf, int length) {
+        int limit = Math.min(length, MAX_CHUNK);
+        if (limit <= MIN_CHUNK) {
+            return limit;
+        }
+        int hash = 0;
+        // the hash only depends on the last 32 bytes, start right before the minimum
+        for (int i = MIN_CHUNK - 32; i < limit; i++) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xff];
+            if (i >= MIN_CHUNK && (hash & CHUNK_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * @return the snapshots in the store, oldest first
+     * @throws IOException if a snapshot could not be read
+     */
+    public List<Snapshot> list() throws IOException {
+        List<Snapshot> list = new ArrayList<>();
+        for (String id : ids()) {
+            list.add(load(id));
+        }
+        return list;
+    }
+
+    /**
+     * @return <code>true</code> if the store holds no snapshot
+     */
+    public boolean isEmpty() {
+        try {
+            return ids().isEmpty();
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private List<String> ids() throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (Files.isDirectory(snapshots)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshots, "*" + SNAPSHOT_EXTENSION)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    ids.add(name.substring(0, name.length() - SNAPSHOT_EXTENSION.length()));
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private Path snapshotPath(String id) {
+        return snapshots.resolve(id + SNAPSHOT_EXTENSION);
+    }
+
+    private Path chunkPath(String hash) {
+        return chunks.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * @param id the snapshot to load
+     * @return the snapshot
+     * @throws IOException if the snapshot does not exist or could not be read
+     */
+    public Snapshot load(String id) throws IOException {
+        try (DataInputStream in =
+                 new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath(id))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown snapshot format: " + id);
+            }
+            Snapshot snapshot = new Snapshot(id);
+            snapshot.created = in.readLong();
+            snapshot.addedBytes = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry e = new Entry();
+                e.name = in.readUTF();
+                e.directory = in.readBoolean();
+                e.size = in.readLong();
+                e.modified = in.readLong();
+                int chunkCount = in.readInt();
+                for (int c = 0; c < chunkCount; c++) {
+                    byte[] hash = new byte[32];
+                    in.readFully(hash);
+                    e.chunks.add(hex(hash));
+                }
+                snapshot.entries.add(e);
+            }
+            return snapshot;
+        }
+    }
+
+    private void save(Snapshot snapshot) throws IOException {
+        Files.createDirectories(snapshots);
+        Path file = snapshotPath(snapshot.id);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(snapshot.created);
+            out.writeLong(snapshot.addedBytes);
+            out.writeInt(snapshot.entries.size());
+            for (Entry e : snapshot.entries) {
+                out.writeUTF(e.name);
+                out.writeBoolean(e.directory);
+                out.writeLong(e.size);
+                out.writeLong(e.modified);
+                out.writeInt(e.chunks.size());
+                for (String hash : e.chunks) {
+                    for (int i = 0; i < hash.length(); i += 2) {
+                        out.writeByte(Integer.parseInt(hash.substring(i, i + 2), 16));
+                    }
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Takes a snapshot of some folders.
+     *
+     * @param folders  the folders to back up by the name they are stored with, the ones that do
+     *                 not exist are skipped
+     * @param listener notified from the calling thread at most every 100 ms, can be
+     *                 <code>null</code>
+     * @return the new snapshot
+     * @throws IOException          if a file could not be backed up
+     * @throws InterruptedException if interrupted, no snapshot is saved
+     */
+    public Snapshot backup(Map<String, Path> folders, ProgressListener listener)
+        throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        final Snapshot snapshot = new Snapshot(newId());
+        snapshot.created = start;
+        final List<Path> paths = new ArrayList<>();
+        for (Map.Entry<String, Path> folder : folders.entrySet()) {
+            final String name = folder.getKey();
+            final Path base = folder.getValue();
+            if (!Files.isDirectory(base)) {
+                continue;
+            }
+            Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    add(dir, attrs, true);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    add(file, attrs, false);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                private void add(Path path, BasicFileAttributes attrs, boolean directory) {
+                    String rel = base.relativize(path).toString().replace('\\', '/');
+                    Entry e = new Entry();
+                    e.name = rel.isEmpty() ? name : name + "/" + rel;
+                    e.directory = directory;
+                    e.size = directory ? 0 : attrs.size();
+                    e.modified = attrs.lastModifiedTime().toMillis();
+                    snapshot.entries.add(e);
+                    paths.add(path);
+                }
+            });
+        }
+
+        Map<String, Entry> previous = new HashMap<>();
+        List<String> ids = ids();
+        if (!ids.isEmpty()) {
+            try {
+                for (Entry e : load(ids.get(ids.size() - 1)).entries) {
+                    previous.put(e.name, e);
+                }
+            } catch (IOException e) {
+                log.log(Level.FINE, "Could not load the last snapshot, reading all files", e);
+            }
+        }
+
+        long total = 0;
+        for (Entry e : snapshot.entries) {
+            total += e.size;
+        }
+        final AtomicLong done = new AtomicLong();
+        final AtomicLong added = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "BackupStore");
+            t.setDaemon(true);
+            return t;
+        });
+        int read = 0;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < snapshot.entries.size(); i++) {
+                final Entry e = snapshot.entries.get(i);
+                final Path path = paths.get(i);
+                if (e.directory) {
+                    continue;
+                }
+                Entry last = previous.get(e.name);
+                if (last != null && !last.directory && last.size == e.size && last.modified == e.modified
+                    && exist(last.chunks)) {
+                    e.chunks.addAll(last.chunks);
+                    done.addAndGet(e.size);
+                    continue;
+                }
+                read++;
+                futures.add(executor.submit(() -> {
+                    store(path, e, done, added);
+                    return null;
+                }));
+            }
+            long lastProgress = 0;
+            for (Future<?> future : futures) {
+                future.get();
+                long now = System.currentTimeMillis();
+                if (listener != null && now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                    lastProgress = now;
+                    listener.progress(done.get(), total);
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        snapshot.addedBytes = added.get();
+        save(snapshot);
+        if (listener != null) {
+            listener.progress(total, total);
+        }
+        log.fine("Snapshot " + snapshot.id + " of " + snapshot.entries.size() + " entries (" + read
+            + " files read) added " + snapshot.addedBytes + " bytes in " + (System.currentTimeMillis() - start)
+            + " ms");
+        return snapshot;
+    }
+
+    private String newId() {
+        String base = Util.now("yyMMddHHmmss");
+        String id = base;
+        for (int i = 1; Files.exists(snapshotPath(id)); i++) {
+            id = base + "-" + i;
+        }
+        return id;
+    }
+
+    private boolean exist(List<String> hashes) {
+        for (String hash : hashes) {
+            if (!Files.exists(chunkPath(hash))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void store(Path path, Entry e, AtomicLong done, AtomicLong added)
+        throws IOException, InterruptedException {
+        MessageDigest sha = sha256();
+        byte[] buf = new byte[(int) Math.min(MAX_CHUNK, Math.max(e.size, 1))];
+        try (InputStream in = Files.newInputStream(path)) {
+            int length = fill(in, buf, 0);
+            while (length > 0) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("Backup cancelled");
+                }
+                boolean eof = length < buf.length;
+                int size = cut(buf, length);
+                sha.update(buf, 0, size);
+                String hash = hex(sha.digest());
+                added.addAndGet(writeChunk(hash, buf, size));
+                e.chunks.add(hash);
+                done.addAndGet(size);
+                System.arraycopy(buf, size, buf, 0, length - size);
+                length = eof ? length - size : fill(in, buf, length - size);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes written, 0 if the chunk was already stored
+     */
+    private long writeChunk(String hash, byte[] data, int length) throws IOException {
+        Path file = chunkPath(hash);
+        if (Files.exists(file)) {
+            return 0;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] compressed = new byte[length];
+        int size;
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            size = deflater.deflate(compressed);
+            // stored as is unless compressing saved some space
+            if (!deflater.finished()) {
+                size = -1;
+            }
+        } finally {
+            deflater.end();
+        }
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(hash + "." + Thread.currentThread().getId() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            if (size >= 0) {
+                out.write(DEFLATED);
+                out.write(compressed, 0, size);
+            } else {
+                out.write(RAW);
+                out.write(data, 0, length);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        return Files.size(file);
+    }
+
+    private byte[] readChunk(String hash) throws IOException {
+        byte[] stored = Files.readAllBytes(chunkPath(hash));
+        byte[] data;
+        if (stored.length > 0 && stored[0] == RAW) {
+            data = Arrays.copyOfRange(stored, 1, stored.length);
+        } else if (stored.length > 0 && stored[0] == DEFLATED) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored, 1, stored.length - 1);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(MAX_CHUNK);
+                byte[] buf = new byte[64 * 1024];
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(buf);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated chunk: " + hash);
+                    }
+                    out.write(buf, 0, n);
+                }
+                data = out.toByteArray();
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted chunk: " + hash, e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new IOException("Unknown chunk format: " + hash);
+        }
+        if (!hex(sha256().digest(data)).equals(hash)) {
+            throw new IOException("Corrupted chunk: " + hash);
+        }
+        return data;
+    }
+
+    /**
+     * Writes the files of a snapshot into a folder, each backed up folder in a folder named as it
+     * was stored. Existing files are replaced.
+     *
+     * @param id     the snapshot to restore
+     * @param target the folder to restore into
+     * @return the number of files restored
+     * @throws IOException if the snapshot could not be restored
+     */
+    public int restore(String id, Path target) throws IOException {
+        Snapshot snapshot = load(id);
+        int files = 0;
+        for (Entry e : snapshot.entries) {
+            Path path = target.resolve(e.name);
+            if (e.directory) {
+                Files.createDirectories(path);
+                continue;
+            }
+            Files.createDirectories(path.getParent());
+            if (Files.exists(path)) {
+                path.toFile().setWritable(true);
+            }
+            try (OutputStream out = Files.newOutputStream(path)) {
+                for (String hash : e.chunks) {
+                    out.write(readChunk(hash));
+                }
+            }
+            Files.setLastModifiedTime(path, FileTime.fromMillis(e.modified));
+            files++;
+        }
+        log.fine("Restored " + files + " files of snapshot " + id + " into " + target);
+        return files;
+    }
+
+    /**
+     * Writes the files of a snapshot into a zip file.
+     *
+     * @param id  the snapshot to export
+     * @param zip the zip file to create
+     * @return the result of the archive
+     * @throws IOException          if the snapshot could not be exported
+     * @throws InterruptedException if interrupted while archiving
+     */
+    public ParallelZipArchiver.Result export(String id, Path zip) throws IOException, InterruptedException {
+        Files.createDirectories(root);
+        Path tmp = Files.createTempDirectory(root, "export");
+        try {
+            restore(id, tmp);
+            List<Path> folders = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(tmp)) {
+                for (Path path : stream) {
+                    folders.add(path);
+                }
+            }
+            Collections.sort(folders);
+            return new ParallelZipArchiver(threads).archive(zip, folders, null);
+        } finally {
+            deleteTree(tmp);
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes a snapshot. Its chunks are kept until {@link #collect()} runs.
+     *
+     * @param id the snapshot to delete
+     * @throws IOException if the snapshot could not be deleted
+     */
+    public void delete(String id) throws IOException {
+        if (Files.deleteIfExists(snapshotPath(id))) {
+            log.fine("Deleted snapshot " + id);
+        }
+    }
+
+    /**
+     * Deletes all but the newest snapshots, then the chunks no longer used.
+     *
+     * @param keep the number of snapshots to keep
+     * @return the number of snapshots deleted
+     * @throws IOException if the store could not be cleaned
+     */
+    public int prune(int keep) throws IOException {
+        List<String> ids = ids();
+        int count = Math.max(0, ids.size() - keep);
+        for (String id : ids.subList(0, count)) {
+            delete(id);
+        }
+        collect();
+        return count;
+    }
+
+    /**
+     * Deletes the chunks not used by any snapshot, along with files left by interrupted backups.
+     *
+     * @return the number of bytes freed
+     * @throws IOException if the store could not be read
+     */
+    public long collect() throws IOException {
+        if (!Files.isDirectory(chunks)) {
+            return 0;
+        }
+        final Set<String> used = new HashSet<>();
+        for (Snapshot snapshot : list()) {
+            for (Entry e : snapshot.entries) {
+                used.addAll(e.chunks);
+            }
+        }
+        final long[] freed = {0, 0};
+        Files.walkFileTree(chunks, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!used.contains(file.getFileName().toString())) {
+                    Files.delete(file);
+                    freed[0] += attrs.size();
+                    freed[1]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                if (!dir.equals(chunks)) {
+                    boolean empty;
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                        empty = !stream.iterator().hasNext();
+                    }
+                    if (empty) {
+                        Files.delete(dir);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        log.fine("Deleted " + freed[1] + " unused chunks (" + freed[0] + " bytes)");
+        return freed[0];
+    }
+
+    public interface ProgressListener {
+
+        /**
+         * @param bytes the number of bytes backed up so far
+         * @param total the total number of bytes to back up
+         */
+        void progress(long bytes, long total);
+
+    }
+
+    public static class Snapshot {
+        private final String id;
+        private final List<Entry> entries = new ArrayList<>();
+        private long created;
+        private long addedBytes;
+
+        Snapshot(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * @return the number of files in the snapshot
+         */
+        public int getFiles() {
+            int files = 0;
+            for (Entry e : entries) {
+                if (!e.directory) {
+                    files++;
+                }
+            }
+            return files;
+        }
+
+        /**
+         * @return the total size of the files in the snapshot
+         */
+        public long getBytes() {
+            long bytes = 0;
+            for (Entry e : entries) {
+                bytes += e.size;
+            }
+            return bytes;
+        }
+
+        /**
+         * @return the number of bytes this snapshot added to the store when it was taken
+         */
+        public long getAddedBytes() {
+            return addedBytes;
+        }
+    }
+
+    private static class Entry {
+        private final List<String> chunks = new ArrayList<>();
+        private String name;
+        private boolean directory;
+        private long size;
+        private long modified;
+    }
+
+}
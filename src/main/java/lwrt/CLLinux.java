@@ -2,6 +2,8 @@ package lwrt;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -12,6 +14,7 @@ import java.util.logging.Level;
 
 public class CLLinux extends CommandLine {
 
+    private static final String TF2_PROCESS = "hl2_linux";
     private static Set<PosixFilePermission> perms777 = new HashSet<>();
 
     static {
@@ -50,7 +53,7 @@ public class CLLinux extends CommandLine {
 
     @Override
     public ProcessBuilder getBuilderTF2ProcessKiller() {
-        return new ProcessBuilder("pkill", "-9", "hl2_linux");
+        return new ProcessBuilder("pkill", "-9", TF2_PROCESS);
     }
 
     @Override
@@ -96,9 +99,13 @@ public class CLLinux extends CommandLine {
 
     @Override
     public boolean isRunningTF2() {
+        long pid = findTF2Pid();
+        if (pid >= 0) {
+            return pid > 0;
+        }
         boolean found = false;
         try {
-            ProcessBuilder pb = new ProcessBuilder("pgrep", "hl2_linux");
+            ProcessBuilder pb = new ProcessBuilder("pgrep", TF2_PROCESS);
             Process pr = pb.start();
             try (BufferedReader input = newProcessReader(pr)) {
                 String line;
@@ -113,6 +120,44 @@ public class CLLinux extends CommandLine {
         return found;
     }
 
+    @Override
+    public long findTF2Pid() {
+        Path proc = Paths.get("/proc");
+        if (!Files.isDirectory(proc)) {
+            return -1;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(proc)) {
+            for (Path dir : stream) {
+                String name = dir.getFileName().toString();
+                if (!name.isEmpty() && Character.isDigit(name.charAt(0))) {
+                    try {
+                        long pid = Long.parseLong(name);
+                        if (isAlive(pid)) {
+                            return pid;
+                        }
+                    } catch (NumberFormatException e) {
+                        // not a process
+                    }
+                }
+            }
+            return 0;
+        } catch (IOException e) {
+            log.log(Level.FINE, "Could not list processes", e);
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean isAlive(long pid) {
+        try {
+            // the name is compared so a reused process id is not mistaken for the game
+            byte[] comm = Files.readAllBytes(Paths.get("/proc", Long.toString(pid), "comm"));
+            return new String(comm, StandardCharsets.UTF_8).trim().equals(TF2_PROCESS);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     @Override
     public Path resolveVpkToolPath(Path tfpath) {
         Path path = tfpath.resolve("../bin/vpk_linux32");
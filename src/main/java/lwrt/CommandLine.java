@@ -105,6 +105,27 @@ public abstract class CommandLine {
      */
     public abstract boolean isRunningTF2();
 
+    /**
+     * Finds the TF2 process by reading the system process table directly, without launching
+     * external commands, so it can be called often. Systems where that is not possible return -1 and
+     * {@link #isRunningTF2()} should be used instead.
+     *
+     * @return the process id of TF2, 0 if it is not running, or -1 if not supported
+     */
+    public long findTF2Pid() {
+        return -1;
+    }
+
+    /**
+     * Checks if a process found by {@link #findTF2Pid()} still runs.
+     *
+     * @param pid the process id of TF2
+     * @return <code>true</code> if the process still runs
+     */
+    public boolean isAlive(long pid) {
+        return isRunningTF2();
+    }
+
     /**
      * Returns the {@link Path} where the VPK included with TF2 is located. This will be used to
      * extract skyboxes for preview generation and loading, and could be used for other features like
@@ -276,9 +297,10 @@ public abstract class CommandLine {
      *
      * @param cfg the program settings from it will retrieve values like the dxlevel and the
      *            resolution
+     * @return the launched process while it runs, or <code>null</code> if it already finished
      * @see #getBuilderStartTF2(String)
      */
-    public void startTf(SettingsManager cfg) {
+    public Process startTf(SettingsManager cfg) {
         try {
             String mode = cfg.getString(Key.LaunchMode);
             String opts = cfg.getString(Key.LaunchOptions);
@@ -377,10 +399,13 @@ public abstract class CommandLine {
                     }
                 }
                 pr.waitFor();
+                return null;
             }
+            return pr;
         } catch (InterruptedException | IOException e) {
             log.warning("Process was interrupted: " + e);
         }
+        return null;
     }
 
     /**
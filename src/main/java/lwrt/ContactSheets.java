@@ -0,0 +1,267 @@
+package lwrt;
+
+import util.TgaReader;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds a contact sheet for each recorded segment: a grid of thumbnails of frames taken at even
+ * intervals, to tell takes apart without opening the frames. Frames are decoded with subsampling so
+ * only reduced images are held in memory, and segments are processed in parallel.
+ * <p>
+ * Sheets are cached as PNG files named after the segment prefix and its frame count, so a sheet is
+ * rebuilt only when the segment changes.
+ */
+class ContactSheets {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final String[] FORMATS = {"tga", "png", "jpg"};
+    private static final int THUMB_WIDTH = 120;
+    private static final int COLUMNS = 4;
+    private static final int GAP = 4;
+    private static final Color BACKGROUND = new Color(40, 40, 40);
+
+    private final Path cache;
+    private final int threads;
+    private final int samples;
+
+    /**
+     * @param cache   the folder where sheets are kept
+     * @param threads the maximum number of sheets built at the same time
+     * @param samples the number of frames shown in each sheet
+     */
+    public ContactSheets(Path cache, int threads, int samples) {
+        this.cache = cache;
+        this.threads = Math.max(1, threads);
+        this.samples = Math.max(1, samples);
+    }
+
+    private static BufferedImage readSubsampled(Path path, int minWidth) throws IOException {
+        if (path.getFileName().toString().endsWith(".tga")) {
+            return TgaReader.readSubsampled(path, minWidth);
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(path.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image: " + path);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int step = Math.max(1, reader.getWidth(0) / minWidth);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Builds or loads the sheets of some segments, calling the listener as each one is ready.
+     *
+     * @param folder   the movie folder
+     * @param index    the index of the movie folder
+     * @param prefixes the segments to build sheets for
+     * @param listener notified from the worker threads with each sheet
+     * @throws InterruptedException if interrupted while waiting for the sheets
+     */
+    public void build(final Path folder, final MovieIndex index, List<String> prefixes,
+                      final Listener listener) throws InterruptedException {
+        if (prefixes.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, prefixes.size()), r -> {
+            Thread t = new Thread(r, "ContactSheets");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final String prefix : prefixes) {
+                futures.add(executor.submit(() -> {
+                    MovieIndex.Segment segment = index.getSegment(prefix);
+                    if (segment == null || segment.getLastFrame() < 0) {
+                        return;
+                    }
+                    try {
+                        listener.sheetReady(prefix, get(folder, prefix, segment));
+                    } catch (IOException e) {
+                        log.log(Level.FINE, "Could not build contact sheet of " + prefix, e);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            log.log(Level.WARNING, "Contact sheet generation failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        log.fine("Contact sheets of " + prefixes.size() + " segments ready in "
+            + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Returns the sheet of a segment from the cache, building it if needed.
+     *
+     * @param folder  the movie folder
+     * @param prefix  the segment prefix
+     * @param segment the indexed segment
+     * @return the contact sheet
+     * @throws IOException if no frame of the segment could be read
+     */
+    public BufferedImage get(Path folder, String prefix, MovieIndex.Segment segment) throws IOException {
+        Path file = cache.resolve(prefix + "_" + segment.getFrames() + "_" + samples + ".png");
+        if (Files.exists(file)) {
+            BufferedImage cached = ImageIO.read(file.toFile());
+            if (cached != null) {
+                return cached;
+            }
+        }
+        BufferedImage sheet = compose(folder, prefix, segment);
+        Files.createDirectories(cache);
+        retain(prefix, file);
+        Path tmp = cache.resolve(file.getFileName() + ".tmp");
+        if (ImageIO.write(sheet, "png", tmp.toFile())) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(tmp);
+        }
+        return sheet;
+    }
+
+    /**
+     * Deletes the cached sheets of segments that no longer exist.
+     *
+     * @param prefixes the existing segments
+     */
+    public void retain(Collection<String> prefixes) {
+        if (!Files.isDirectory(cache)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cache, "*.png")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                int end = name.indexOf('_');
+                if (end < 0 || !prefixes.contains(name.substring(0, end))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Could not clean contact sheet cache", e);
+        }
+    }
+
+    private void retain(String prefix, Path current) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cache, prefix + "_*.png")) {
+            for (Path file : stream) {
+                if (!file.equals(current)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private BufferedImage compose(Path folder, String prefix, MovieIndex.Segment segment) throws IOException {
+        int last = segment.getLastFrame();
+        int count = Math.min(samples, last + 1);
+        BufferedImage[] thumbs = new BufferedImage[count];
+        int[] numbers = new int[count];
+        int thumbHeight = 0;
+        IOException error = null;
+        for (int i = 0; i < count; i++) {
+            // spread the samples from the first to the last frame
+            numbers[i] = count == 1 ? 0 : (int) ((long) last * i / (count - 1));
+            Path frame = find(folder, prefix, numbers[i], segment);
+            if (frame == null) {
+                continue;
+            }
+            try {
+                BufferedImage image = readSubsampled(frame, THUMB_WIDTH);
+                int height = Math.max(1, image.getHeight() * THUMB_WIDTH / image.getWidth());
+                BufferedImage thumb = new BufferedImage(THUMB_WIDTH, height, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = thumb.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(image, 0, 0, THUMB_WIDTH, height, null);
+                g.dispose();
+                thumbs[i] = thumb;
+                thumbHeight = Math.max(thumbHeight, height);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (thumbHeight == 0) {
+            throw error != null ? error : new IOException("No frames found for " + prefix);
+        }
+
+        int rows = (count + COLUMNS - 1) / COLUMNS;
+        int columns = Math.min(COLUMNS, count);
+        BufferedImage sheet = new BufferedImage(GAP + columns * (THUMB_WIDTH + GAP),
+            GAP + rows * (thumbHeight + GAP), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = sheet.createGraphics();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, sheet.getWidth(), sheet.getHeight());
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 10));
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        for (int i = 0; i < count; i++) {
+            int x = GAP + (i % COLUMNS) * (THUMB_WIDTH + GAP);
+            int y = GAP + (i / COLUMNS) * (thumbHeight + GAP);
+            if (thumbs[i] != null) {
+                g.drawImage(thumbs[i], x, y, null);
+            }
+            String label = Integer.toString(numbers[i]);
+            g.setColor(Color.BLACK);
+            g.drawString(label, x + 3, y + thumbHeight - 3);
+            g.setColor(Color.WHITE);
+            g.drawString(label, x + 2, y + thumbHeight - 4);
+        }
+        g.dispose();
+        return sheet;
+    }
+
+    private static Path find(Path folder, String prefix, int number, MovieIndex.Segment segment) {
+        for (String format : FORMATS) {
+            if (segment.getFrames(format) > 0) {
+                Path frame = folder.resolve(String.format("%s_%04d.%s", prefix, number, format));
+                if (Files.exists(frame)) {
+                    return frame;
+                }
+            }
+        }
+        return null;
+    }
+
+    public interface Listener {
+
+        /**
+         * @param prefix the segment prefix
+         * @param sheet  the contact sheet of the segment
+         */
+        void sheetReady(String prefix, BufferedImage sheet);
+    }
+
+}
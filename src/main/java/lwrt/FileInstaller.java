@@ -0,0 +1,133 @@
+package lwrt;
+
+import util.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Puts a single file in place during an install, avoiding copies where the file system allows it.
+ * <p>
+ * Files from Lawena's own folders are hard linked, since the game never writes to them. A link
+ * shares its permissions with the source, so files that must be installed read-only are never
+ * linked, and linked files keep the permissions of their source. Other large files, like the VPKs
+ * of the user's custom folder, are cloned with copy-on-write reflinks on Linux file systems that
+ * support them (btrfs, XFS). Everything else, and any file that can't be linked or cloned, is
+ * copied.
+ */
+class FileInstaller {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final long REFLINK_MIN_BYTES = 1024 * 1024;
+
+    private final List<Path> linkable = new ArrayList<>();
+    private final boolean links;
+    private boolean reflinks;
+    private int linked = 0;
+    private int cloned = 0;
+    private int copied = 0;
+
+    /**
+     * @param mode     "copy" to always copy, "link" to link or clone when possible, or "auto" to do
+     *                 it only on Linux
+     * @param linkable the folders whose files can be hard linked
+     */
+    public FileInstaller(String mode, Collection<Path> linkable) {
+        boolean linux = System.getProperty("os.name").contains("Linux");
+        this.links = mode.equals("link") || (mode.equals("auto") && linux);
+        this.reflinks = links && linux;
+        for (Path path : linkable) {
+            this.linkable.add(path.toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * Copies files without linking.
+     */
+    public FileInstaller() {
+        this("copy", Arrays.<Path>asList());
+    }
+
+    private boolean isLinkable(Path source) {
+        Path path = source.toAbsolutePath().normalize();
+        for (Path root : linkable) {
+            if (path.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Installs a file, replacing the destination if it exists. The destination is deleted first, so
+     * a previous link never writes through to its source.
+     *
+     * @param source   the file to install
+     * @param dest     where to install it
+     * @param readOnly <code>true</code> to make the installed file read-only, which is never done
+     *                 through a link to keep the source writable
+     * @param digest   receives the contents of the file if it was copied
+     * @return <code>true</code> if the file was copied and the digest holds its contents
+     * @throws IOException if the file could not be installed
+     */
+    public boolean install(Path source, Path dest, boolean readOnly, MessageDigest digest)
+        throws IOException {
+        if (Files.exists(dest)) {
+            dest.toFile().setWritable(true);
+        }
+        if (Files.deleteIfExists(dest)) {
+            log.finest("Replacing file: " + dest);
+        }
+        if (links && !readOnly && isLinkable(source)) {
+            try {
+                Files.createLink(dest, source);
+                linked++;
+                return false;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.finer("Could not link " + dest + ": " + e);
+            }
+        }
+        if (reflinks && Files.size(source) >= REFLINK_MIN_BYTES) {
+            int ret = Util.startProcess(Arrays.asList("cp", "--reflink=always",
+                source.toAbsolutePath().toString(), dest.toAbsolutePath().toString()));
+            if (ret == 0) {
+                cloned++;
+                dest.toFile().setWritable(!readOnly);
+                return false;
+            }
+            // the file system doesn't support it, don't try again
+            log.fine("Reflinks are not supported for " + dest.getParent() + ", copying instead");
+            reflinks = false;
+            Files.deleteIfExists(dest);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            Files.copy(in, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+        dest.toFile().setWritable(!readOnly);
+        copied++;
+        return true;
+    }
+
+    public int getLinked() {
+        return linked;
+    }
+
+    public int getCloned() {
+        return cloned;
+    }
+
+    public int getCopied() {
+        return copied;
+    }
+
+}
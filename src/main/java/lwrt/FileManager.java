@@ -1,17 +1,15 @@
 package lwrt;
 
 import lwrt.SettingsManager.Key;
-import net.lingala.zip4j.core.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.util.Zip4jConstants;
-import util.CopyDirVisitor;
 import util.DeleteDirVisitor;
 import util.LawenaException;
+import util.ParallelCopier;
 import util.Util;
 
 import javax.swing.*;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.file.*;
 import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -22,6 +20,8 @@ import java.util.logging.Logger;
 class FileManager {
 
     private static final Logger log = Logger.getLogger("lawena");
+    private static final Logger status = Logger.getLogger("status");
+    private static final String SKYBOX_PATH = "custom/lawena/materials/skybox";
 
     private CustomPathList customPathList;
     private SettingsManager cfg;
@@ -32,16 +32,17 @@ class FileManager {
         this.cl = cl;
     }
 
-    private static Path copy(Path from, Path to) throws IOException {
-        return Files.walkFileTree(from, new CopyDirVisitor(from, to, false));
+    private void copy(Path from, Path to) throws IOException {
+        copy(from, to, null);
     }
 
-    private static Path copyReadOnly(Path from, Path to) throws IOException {
-        return Files.walkFileTree(from, new CopyDirVisitor(from, to, true));
-    }
-
-    private static Path copy(Path from, Path to, Filter<Path> filter) throws IOException {
-        return Files.walkFileTree(from, new CopyDirVisitor(from, to, false, filter));
+    private void copy(Path from, Path to, Filter<Path> filter) throws IOException {
+        try {
+            new ParallelCopier(cfg.getInt(Key.CopyThreads)).copy(from, to, false, filter);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Copy of " + from + " was cancelled");
+        }
     }
 
     private static void mkdirs(Path dir) throws IOException {
@@ -104,6 +105,7 @@ class FileManager {
         Path customPath = tfpath.resolve("custom");
         Path configBackupPath = tfpath.resolve("lwrtcfg");
         Path configPath = tfpath.resolve("cfg");
+        Path cachePath = tfpath.resolve("lwrtcache");
 
         if (Files.exists(configBackupPath) || Files.exists(customBackupPath)) {
             log.info("*** Backup lwrt folders are still present, not replacing files");
@@ -111,18 +113,21 @@ class FileManager {
             log.info("*** Restart Lawena to attempt to restore your files again");
             throw new LawenaException("Files not replaced due to backup folders still present");
         }
+        InstallManifest manifest = new InstallManifest(cachePath.resolve("install.lwm"));
+        InstallManifest.Plan plan = new InstallManifest.Plan();
+        plan.manage("cfg");
+        plan.manage("custom");
         try {
             log.fine("Making a backup of your config files");
             configPath.toFile().setWritable(true);
             Files.move(configPath, configBackupPath);
-            mkdirs(configPath);
-            copy(Paths.get("cfg"), configPath);
+            fromCache(cachePath.resolve("cfg"), configPath);
+            plan.addTree("cfg", Paths.get("cfg"), false);
             if (cfg.getBoolean(Key.CopyUserConfig)) {
                 Path configCfg = configBackupPath.resolve("config.cfg");
                 if (Files.exists(configCfg)) {
                     log.fine("Copying user config.cfg to be used in Lawena");
-                    Files.copy(configCfg, configPath.resolve("config.cfg"),
-                        StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+                    plan.add("cfg/config.cfg", configCfg, false);
                 }
             }
         } catch (IOException e) {
@@ -136,6 +141,7 @@ class FileManager {
             }
             customPath.toFile().setWritable(true);
             Files.move(customPath, customBackupPath);
+            fromCache(cachePath.resolve("custom"), customPath);
         } catch (IOException e) {
             log.log(Level.INFO, "Could not backup custom folder", e);
             throw new LawenaException("Failed to replace custom files", e);
@@ -143,17 +149,14 @@ class FileManager {
         // Copy hud files
         try {
             log.fine("Copying selected hud files");
-            Path resourcePath = tfpath.resolve("custom/lawena/resource");
-            Path scriptsPath = tfpath.resolve("custom/lawena/scripts");
-            mkdirs(resourcePath);
-            mkdirs(scriptsPath);
+            plan.dir("custom/lawena/resource");
+            plan.dir("custom/lawena/scripts");
             String hudName = cfg.getHud();
             if (!hudName.equals("custom")) {
-                copyReadOnly(Paths.get("hud", hudName, "resource"), resourcePath);
-                copyReadOnly(Paths.get("hud", hudName, "scripts"), scriptsPath);
+                plan.addTree("custom/lawena/resource", Paths.get("hud", hudName, "resource"), true);
+                plan.addTree("custom/lawena/scripts", Paths.get("hud", hudName, "scripts"), true);
                 if (!hudName.equals("hud_default")) {
-                    Files.copy(Paths.get("hud", hudName, "info.vdf"),
-                        tfpath.resolve("custom/lawena/info.vdf"));
+                    plan.add("custom/lawena/info.vdf", Paths.get("hud", hudName, "info.vdf"), false);
                 }
             }
         } catch (IOException e) {
@@ -161,36 +164,92 @@ class FileManager {
             throw new LawenaException("Failed to replace hud files", e);
         }
         // Copy skybox files
-        Path skyboxPath = tfpath.resolve("custom/lawena/materials/skybox");
         try {
             String sky = cfg.getSkybox();
             if (sky != null && !sky.isEmpty() && !sky.equals(Key.Skybox.defValue())) {
                 log.fine("Copying selected skybox files");
-                mkdirs(skyboxPath);
-                replaceSkybox();
+                replaceSkybox(plan);
             }
         } catch (IOException e) {
             log.log(Level.INFO, "Could not replace skybox files", e);
-            try {
-                delete(skyboxPath);
-                log.fine("Skybox folder deleted, no skybox files were replaced");
-            } catch (IOException e1) {
-                log.info("Could not delete lawena skybox folder: " + e1);
-            }
             throw new LawenaException("Failed to replace skybox files", e);
         }
         // Copy selected custom files
+        Map<Path, List<String>> extract = new LinkedHashMap<>();
         if (customPathList != null) {
-            copyCustomFiles();
+            copyCustomFiles(plan, extract);
+        }
+        try {
+            FileInstaller installer = new FileInstaller(cfg.getString(Key.InstallMode),
+                Arrays.asList(Paths.get("hud"), Paths.get("skybox"), Paths.get("custom")));
+            InstallManifest.Result result = manifest.sync(tfpath, plan, installer);
+            for (String failed : result.getFailed()) {
+                if (failed.startsWith(SKYBOX_PATH)) {
+                    // a partial skybox looks broken in game, go without it like before
+                    try {
+                        delete(tfpath.resolve(SKYBOX_PATH));
+                        log.info("Skybox folder deleted, no skybox files were replaced");
+                    } catch (IOException e) {
+                        log.info("Could not delete lawena skybox folder: " + e);
+                    }
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.INFO, "Could not copy files", e);
+            throw new LawenaException("Failed to replace files", e);
+        }
+        for (Map.Entry<Path, List<String>> e : extract.entrySet()) {
+            try {
+                Path customParticlesPath = customPath.resolve("lawena/particles");
+                mkdirs(customParticlesPath);
+                // TODO: fix to avoid invoking vpk x
+                cl.extractIfNeeded(tfpath, e.getKey().toString(), customParticlesPath.getParent(), e.getValue());
+            } catch (IOException ex) {
+                log.info("Could not copy custom file: " + ex);
+            }
+        }
+    }
+
+    /**
+     * Moves the files installed by the previous launch back into place, if they were kept.
+     */
+    private static void fromCache(Path cached, Path installed) throws IOException {
+        if (Files.isDirectory(cached)) {
+            try {
+                Files.move(cached, installed);
+                return;
+            } catch (IOException e) {
+                log.fine("Could not reuse installed files, copying again: " + e);
+            }
+        }
+        mkdirs(installed);
+    }
+
+    /**
+     * Moves the files installed by Lawena aside for the next launch, so only changes need copying.
+     *
+     * @return <code>true</code> if the files were moved
+     */
+    private boolean toCache(Path installed, Path cached) {
+        try {
+            if (Files.exists(cached)) {
+                delete(cached);
+            }
+            mkdirs(cached.getParent());
+            Files.move(installed, cached);
+            return true;
+        } catch (IOException e) {
+            log.fine("Could not keep installed files for the next launch: " + e);
+            return false;
         }
     }
 
-    private void copyCustomFiles() {
+    private void copyCustomFiles(InstallManifest.Plan plan, Map<Path, List<String>> extract) {
         Path tfpath = cfg.getTfPath();
         Path customBackupPath = tfpath.resolve("lwrtcustom");
         Path customPath = tfpath.resolve("custom");
         Path localCustomPath = Paths.get("custom");
-        Path customParticlesPath = customPath.resolve("lawena/particles");
 
         log.fine("Copying selected custom vpks and folders");
         for (CustomPath cp : customPathList.getList()) {
@@ -208,8 +267,7 @@ class FileManager {
                     if (Files.exists(source)) {
                         if (Files.isDirectory(source)) {
                             log.fine("Copying custom folder: " + source.getFileName());
-                            Path dest = customPath.resolve(source.getFileName());
-                            copyReadOnly(source, dest);
+                            plan.addTree("custom/" + source.getFileName(), source, true);
                         } else if (cp == CustomPathList.particles) {
                             List<String> contents = cl.getVpkContents(tfpath, cp.getPath());
                             List<String> selected = cfg.getParticles();
@@ -218,17 +276,16 @@ class FileManager {
                             }
                             if (!contents.isEmpty()) {
                                 log.fine("Copying enhanced particles: " + contents);
-                                mkdirs(customParticlesPath);
-                                // TODO: fix to avoid invoking vpk x
-                                cl.extractIfNeeded(tfpath, cp.getPath().toString(),
-                                    customParticlesPath.getParent(), contents);
+                                for (String file : contents) {
+                                    plan.keep("custom/lawena/" + file);
+                                }
+                                extract.put(cp.getPath(), contents);
                             } else {
                                 log.fine("No enhanced particles were selected");
                             }
                         } else if (source.getFileName().toString().endsWith(".vpk")) {
                             log.fine("Copying custom VPK: " + cp.getPath());
-                            Path dest = customPath.resolve(source.getFileName());
-                            Files.copy(source, dest);
+                            plan.add("custom/" + source.getFileName(), source, false);
                         } else {
                             log.info("Not copying: " + source.getFileName());
                         }
@@ -242,17 +299,16 @@ class FileManager {
         }
     }
 
-    private void replaceSkybox() throws IOException {
-        Path tfpath = cfg.getTfPath();
+    private void replaceSkybox(InstallManifest.Plan plan) throws IOException {
         Set<Path> vmtPaths = new LinkedHashSet<>();
         Set<Path> vtfPaths = new LinkedHashSet<>();
-        Path skyboxPath = tfpath.resolve("custom/lawena/materials/skybox");
+        String skyboxPath = SKYBOX_PATH + "/";
         String skyboxFilename = cfg.getSkybox();
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get("skybox"))) {
             for (Path path : stream) {
                 String pathStr = path.toFile().getName();
                 if (pathStr.endsWith(".vmt")) {
-                    Files.copy(path, skyboxPath.resolve(pathStr));
+                    plan.add(skyboxPath + pathStr, path, false);
                     vmtPaths.add(path);
                 }
                 if (pathStr.endsWith(".vtf") && pathStr.startsWith(skyboxFilename)) {
@@ -271,24 +327,102 @@ class FileManager {
                     || (vtf.endsWith("ft.vtf") && vmt.endsWith("ft.vmt"))
                     || (vtf.endsWith("lf.vtf") && vmt.endsWith("lf.vmt"))
                     || (vtf.endsWith("rt.vtf") && vmt.endsWith("rt.vmt"))) {
-                    Files.copy(vtfPath, skyboxPath.resolve(vmt.substring(0, vmt.indexOf(".vmt")) + ".vtf"));
+                    plan.add(skyboxPath + vmt.substring(0, vmt.indexOf(".vmt")) + ".vtf", vtfPath, false);
                 }
             }
         }
     }
 
+    /**
+     * Puts the user's cfg and custom folders back in place. Calls are serialized, since the launch
+     * task restores in the background while closing Lawena restores on the event thread.
+     *
+     * @return <code>true</code> if all files were restored
+     */
     public boolean restoreAll() {
+        // asked before taking the lock: off the event thread the question waits for it, and the
+        // event thread may be waiting for the lock to restore on exit
+        boolean doBackup = confirmBackup();
+        return restoreAll(doBackup);
+    }
+
+    private BackupStore backupStore() {
+        return new BackupStore(cfg.getTfPath().resolve("lwrtbackup"), cfg.getInt(Key.BackupThreads));
+    }
+
+    /**
+     * Asks the user whether to back up the folders about to be restored when they are big and no
+     * backup was made before, since only the first backup copies everything.
+     *
+     * @return <code>false</code> if the user declined the backup
+     */
+    private boolean confirmBackup() {
+        Path customBackupPath = cfg.getTfPath().resolve("lwrtcustom");
+        Path configBackupPath = cfg.getTfPath().resolve("lwrtcfg");
+        if (!Files.exists(configBackupPath) && !Files.exists(customBackupPath)) {
+            return true;
+        }
+        if (!backupStore().isEmpty()) {
+            return true;
+        }
+        try {
+            long bytes = Util.sizeOfPath(configBackupPath) + Util.sizeOfPath(customBackupPath);
+            final String size = Util.humanReadableByteCount(bytes, true);
+            log.info("Backup folders size: " + size);
+            if (bytes / 1024 / 1024 <= cfg.getInt(Key.BigFolderMBThreshold)) {
+                return true;
+            }
+            final int[] answer = {JOptionPane.YES_OPTION};
+            Runnable ask = new Runnable() {
+
+                @Override
+                public void run() {
+                    answer[0] =
+                        JOptionPane
+                            .showConfirmDialog(
+                                null,
+                                "Your cfg and custom folders are "
+                                    + size
+                                    + " in size.\nCreating a backup of them might take a while."
+                                    + "\nPlease consider moving unnecesary custom files like maps to tf/download folder."
+                                    + "\nDo you still want to create a backup?", "Backup Folder",
+                                JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+                }
+            };
+            if (SwingUtilities.isEventDispatchThread()) {
+                ask.run();
+            } else {
+                SwingUtilities.invokeAndWait(ask);
+            }
+            if (answer[0] == JOptionPane.NO_OPTION || answer[0] == JOptionPane.CLOSED_OPTION) {
+                log.info("Backup creation skipped by the user");
+                return false;
+            }
+        } catch (IOException e) {
+            log.info("Could not determine folder size: " + e);
+        } catch (InvocationTargetException e) {
+            log.log(Level.INFO, "Could not ask about the backup", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    private synchronized boolean restoreAll(boolean doBackup) {
         Path tfpath = cfg.getTfPath();
         Path customBackupPath = tfpath.resolve("lwrtcustom");
         Path customPath = tfpath.resolve("custom");
         Path configBackupPath = tfpath.resolve("lwrtcfg");
         Path configPath = tfpath.resolve("cfg");
+        Path cachePath = tfpath.resolve("lwrtcache");
         boolean restoreComplete = true;
 
         if (Files.exists(customBackupPath)) {
             log.fine("Restoring all your custom files");
             try {
-                delete(customPath);
+                if (!toCache(customPath, cachePath.resolve("custom"))) {
+                    delete(customPath);
+                }
             } catch (NoSuchFileException e) {
                 log.fine("File does not exist: " + e);
             } catch (IOException e) {
@@ -315,7 +449,9 @@ class FileManager {
         if (Files.exists(configBackupPath)) {
             log.fine("Restoring all your config files");
             try {
-                delete(configPath);
+                if (!toCache(configPath, cachePath.resolve("cfg"))) {
+                    delete(configPath);
+                }
             } catch (NoSuchFileException e) {
                 log.fine("File does not exist: " + e);
             } catch (IOException e) {
@@ -340,48 +476,31 @@ class FileManager {
             log.fine("No config backup folder present");
         }
         // always make a backup, later decide if it's useful
-        Path zip = tfpath.resolve("lawena-user." + Util.now("yyMMddHHmmss") + ".bak.zip");
-        boolean doBackup = true;
-        if (Files.exists(configBackupPath) || Files.exists(customBackupPath)) {
-            try {
-                long bytes = Util.sizeOfPath(configBackupPath) + Util.sizeOfPath(customBackupPath);
-                String size = Util.humanReadableByteCount(bytes, true);
-                log.info("Backup folders size: " + size);
-                if (bytes / 1024 / 1024 > cfg.getInt(Key.BigFolderMBThreshold)) {
-                    int answer =
-                        JOptionPane
-                            .showConfirmDialog(
-                                null,
-                                "Your cfg and custom folders are "
-                                    + size
-                                    + " in size.\nThis might cause Lawena to hang or crash while it creates a backup."
-                                    + "\nPlease consider moving unnecesary custom files like maps to tf/download folder."
-                                    + "\nDo you still want to create a backup?", "Backup Folder",
-                                JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
-                    if (answer == JOptionPane.NO_OPTION || answer == JOptionPane.CLOSED_OPTION) {
-                        log.info("Backup creation skipped by the user");
-                        doBackup = false;
-                    }
-                }
-            } catch (IOException e) {
-                log.info("Could not determine folder size: " + e);
-            }
-        }
+        BackupStore store = backupStore();
+        String snapshot = null;
         if (doBackup && (Files.exists(configBackupPath) || Files.exists(customBackupPath))) {
-            log.info("Creating a backup of your files in: " + zip);
+            log.info("Creating a backup of your files in: " + tfpath.resolve("lwrtbackup"));
+            Map<String, Path> folders = new LinkedHashMap<>();
+            folders.put("cfg", configBackupPath);
+            folders.put("custom", customBackupPath);
             try {
-                ZipFile zipFile = new ZipFile(zip.toFile());
-                ZipParameters parameters = new ZipParameters();
-                parameters.setCompressionMethod(Zip4jConstants.COMP_DEFLATE);
-                parameters.setCompressionLevel(Zip4jConstants.DEFLATE_LEVEL_NORMAL);
-                for (Path path : Arrays.asList(configBackupPath, customBackupPath)) {
-                    if (Files.exists(path)) {
-                        zipFile.addFolder(path.toFile(), parameters);
+                BackupStore.Snapshot result = store.backup(folders, new BackupStore.ProgressListener() {
+
+                    @Override
+                    public void progress(long bytes, long total) {
+                        status.info("Creating a backup of your files: "
+                            + (total > 0 ? bytes * 100 / total : 100) + "%");
                     }
-                }
-            } catch (IllegalArgumentException | ZipException e) {
-                // IllegalArgumentException can be caused by a bug in jdk versions 7u40 and older
+                });
+                snapshot = result.getId();
+                log.info("Backup " + snapshot + " created, "
+                    + Util.humanReadableByteCount(result.getAddedBytes(), true) + " added to the store");
+                store.prune(cfg.getInt(Key.BackupSnapshots));
+            } catch (IOException e) {
                 log.info("Emergency backup could not be created: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.info("Emergency backup was cancelled");
             }
         }
         if (restoreComplete) {
@@ -408,14 +527,14 @@ class FileManager {
             log.info("*** in a way that can only be unlocked through a restart or using Unlocker software :(");
         } else {
             log.info("*** Restore and cleanup completed");
-            // Created zip file is safe to delete since the process was completed
-            if (cfg.getBoolean(Key.DeleteBackupsWhenRestoring)) {
+            // Created snapshot is safe to delete since the process was completed
+            if (cfg.getBoolean(Key.DeleteBackupsWhenRestoring) && snapshot != null) {
                 try {
-                    if (Files.deleteIfExists(zip)) {
-                        log.info("Deleted last backup: " + zip);
-                    }
+                    store.delete(snapshot);
+                    store.collect();
+                    log.info("Deleted last backup: " + snapshot);
                 } catch (IOException e) {
-                    log.info("Could not delete backup zipfile: " + e);
+                    log.info("Could not delete backup snapshot: " + e);
                 }
             }
         }
@@ -0,0 +1,266 @@
+package lwrt;
+
+import util.TgaReader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Converts the TGA frames written to the movie folder into lossless PNG files while the game is
+ * still recording. A frame is considered complete once the next frame of its segment appears, or
+ * once it has not changed for a few seconds. Each PNG is decoded again and compared against the
+ * original pixels before the TGA file is deleted.
+ * <p>
+ * Conversions run on a few low priority threads and can be limited to a maximum disk throughput,
+ * so the game keeps most of the processor and disk to itself. Frames that arrive faster than they
+ * can be converted wait in a queue.
+ */
+class FrameRecompressor implements MovieIndex.Listener {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final long SETTLE_MILLIS = 3000;
+    private static final long SWEEP_MILLIS = 1000;
+
+    private final int threads;
+    private final long bytesPerSecond;
+    private final BlockingQueue<Path> queue = new LinkedBlockingQueue<>();
+    private final Map<String, Pending> latest = new HashMap<>();
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private ExecutorService workers;
+    private ScheduledExecutorService sweeper;
+    private long throttleUntil = 0;
+
+    /**
+     * @param threads  the number of frames converted at the same time, or 0 to use the processors
+     *                 the game is not expected to need
+     * @param maxMBps  the maximum megabytes read and written per second, or 0 for no limit
+     */
+    public FrameRecompressor(int threads, int maxMBps) {
+        this.threads = threads > 0 ? threads
+            : Math.max(1, Runtime.getRuntime().availableProcessors() / 2 - 1);
+        this.bytesPerSecond = maxMBps * 1024L * 1024L;
+    }
+
+    private static long checksum(BufferedImage image) {
+        CRC32 crc = new CRC32();
+        int width = image.getWidth();
+        int[] row = new int[width];
+        byte[] bytes = new byte[width * 4];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0, i = 0; x < width; x++) {
+                int p = row[x];
+                bytes[i++] = (byte) (p >>> 24);
+                bytes[i++] = (byte) (p >>> 16);
+                bytes[i++] = (byte) (p >>> 8);
+                bytes[i++] = (byte) p;
+            }
+            crc.update(bytes, 0, bytes.length);
+        }
+        return crc.getValue();
+    }
+
+    private static Path sibling(Path tga, String extension) {
+        String name = tga.getFileName().toString();
+        return tga.resolveSibling(name.substring(0, name.length() - 4) + extension);
+    }
+
+    public synchronized void start() {
+        if (workers != null) {
+            return;
+        }
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "FrameRecompressor");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "FrameRecompressorSweep");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        log.fine("Recompressing recorded frames to PNG using " + threads + " threads");
+    }
+
+    /**
+     * Stops converting frames. Frames still waiting are left as TGA files.
+     */
+    public synchronized void stop() {
+        if (workers == null) {
+            return;
+        }
+        sweeper.shutdownNow();
+        workers.shutdownNow();
+        workers = null;
+        sweeper = null;
+        synchronized (latest) {
+            latest.clear();
+        }
+        int waiting = queue.size();
+        queue.clear();
+        log.fine("Frame recompression stopped: " + converted.get() + " converted, " + failed.get()
+            + " failed, " + waiting + " left as TGA, " + (bytesSaved.get() >> 20) + " MB saved");
+    }
+
+    @Override
+    public void frameChanged(String prefix, int frame, Path file, boolean created) {
+        if (!file.getFileName().toString().endsWith(".tga")) {
+            return;
+        }
+        synchronized (latest) {
+            Pending p = latest.get(prefix);
+            if (p != null && frame > p.frame) {
+                // frames are written in order, so the previous one is complete
+                queue.add(p.file);
+                p = null;
+            }
+            if (p == null) {
+                latest.put(prefix, new Pending(file, frame));
+            } else if (frame == p.frame) {
+                p.changed = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        synchronized (latest) {
+            for (Iterator<Pending> it = latest.values().iterator(); it.hasNext(); ) {
+                Pending p = it.next();
+                if (now - p.changed >= SETTLE_MILLIS) {
+                    queue.add(p.file);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void work() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                convert(queue.take());
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    private void convert(Path tga) throws InterruptedException {
+        Path png = sibling(tga, ".png");
+        Path tmp = sibling(tga, ".png.tmp");
+        try {
+            long size = Files.size(tga);
+            throttle(size);
+            BufferedImage image = TgaReader.read(tga);
+            if (!ImageIO.write(image, "png", tmp.toFile())) {
+                throw new IOException("No PNG writer available");
+            }
+            long compressed = Files.size(tmp);
+            throttle(compressed);
+            BufferedImage check = ImageIO.read(tmp.toFile());
+            if (check == null || check.getWidth() != image.getWidth()
+                || check.getHeight() != image.getHeight() || checksum(check) != checksum(image)) {
+                throw new IOException("PNG does not match the original frame");
+            }
+            try {
+                Files.move(tmp, png, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, png, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.delete(tga);
+            converted.incrementAndGet();
+            bytesSaved.addAndGet(size - compressed);
+            log.finer("Recompressed " + tga.getFileName() + ": " + (size >> 10) + " KB -> "
+                + (compressed >> 10) + " KB");
+        } catch (IOException | RuntimeException e) {
+            // a malformed frame must not end the worker, which would silently stop all conversions
+            failed.incrementAndGet();
+            log.log(Level.FINE, "Could not recompress " + tga.getFileName() + ", keeping the TGA", e);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Waits until the given amount of bytes can be transferred without exceeding the configured
+     * throughput.
+     */
+    private void throttle(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, throttleUntil);
+            throttleUntil = start + bytes * 1000000000L / bytesPerSecond;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * @return the number of frames converted so far
+     */
+    public int getConverted() {
+        return converted.get();
+    }
+
+    /**
+     * @return the number of frames that could not be converted and were kept as TGA
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of frames waiting to be converted
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * @return the disk space saved so far, in bytes
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    private static class Pending {
+        private final Path file;
+        private final int frame;
+        private long changed = System.currentTimeMillis();
+
+        Pending(Path file, int frame) {
+            this.file = file;
+            this.frame = frame;
+        }
+    }
+
+}
@@ -0,0 +1,310 @@
+package lwrt;
+
+import util.DemoCatalog;
+import util.FrameIntegrityScanner;
+import util.ParallelZipArchiver;
+import util.WavFile;
+import util.WavTool;
+import vdm.SkipPlanner;
+import vdm.TickPlan;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Command line entry point to run Lawena tasks from scripts, without loading any user interface
+ * classes. Results are printed to standard output as tab-separated lines and logs go to standard
+ * error.
+ * <pre>
+ * java -cp lawena.jar lwrt.Headless [-v] [--settings file] command [args...]
+ *
+ * cfg                              save settings to cfg files and create movie slot configs
+ * vdm plan                         generate VDM files from a tick plan, printing each file
+ * calibrate skipahead millis       update the measured cost of a SkipAhead
+ * calibrate timescale ticks millis [tickInterval]
+ *                                  update the measured speed of demo_timescale skips
+ * verify [folder]                  check the recorded frames for gaps, truncated and duplicate
+ *                                  files, using the movie folder by default
+ * wav info file...                 print the format and length of WAV files
+ * wav concat [--fps n] out in...   join WAV files, cutting each to whole video frames with --fps
+ * wav trim fps in out start [end]  keep the audio between two video frames
+ * backup list                      list the snapshots of the backup store in the TF2 folder
+ * backup create                    take a snapshot of the user's cfg and custom folders
+ * backup restore id folder         write the files of a snapshot into a folder
+ * backup export id zip             write the files of a snapshot into a zip file
+ * backup delete id                 delete a snapshot and the chunks only it used
+ * backup prune keep                keep the newest snapshots and delete the unused chunks
+ * </pre>
+ * Exits with 0 on success, 1 if the command failed or verify found problems and 2 on invalid
+ * usage.
+ */
+public class Headless {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final Logger log = Logger.getLogger("lawena");
+
+    private SettingsManager cfg;
+
+    public Headless(SettingsManager cfg) {
+        this.cfg = cfg;
+    }
+
+    public static void main(String[] args) {
+        List<String> list = new ArrayList<>(Arrays.asList(args));
+        String settingsFile = "settings.lwf";
+        boolean verbose = false;
+        while (!list.isEmpty() && list.get(0).startsWith("-")) {
+            String option = list.remove(0);
+            if (option.equals("-v") || option.equals("--verbose")) {
+                verbose = true;
+            } else if (option.equals("--settings") && !list.isEmpty()) {
+                settingsFile = list.remove(0);
+            } else {
+                System.exit(usage("Unknown option: " + option));
+            }
+        }
+        if (list.isEmpty()) {
+            System.exit(usage("No command given"));
+        }
+        SettingsManager cfg = new SettingsManager(settingsFile);
+        setupLogging(verbose ? cfg.getLogConsoleLevel() : Level.WARNING);
+        System.exit(new Headless(cfg).run(list.remove(0), list));
+    }
+
+    private static void setupLogging(Level level) {
+        ConsoleHandler handler = new ConsoleHandler();
+        handler.setLevel(level);
+        log.setUseParentHandlers(false);
+        log.setLevel(level);
+        log.addHandler(handler);
+    }
+
+    private static int usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: lwrt.Headless [-v] [--settings file] command [args...]");
+        System.err.println("Commands: cfg | vdm <plan> | calibrate skipahead <millis>"
+            + " | calibrate timescale <ticks> <millis> [tickInterval] | verify [folder]"
+            + " | wav info|concat|trim <args> | backup list|create|restore|export|delete|prune <args>");
+        return EXIT_USAGE;
+    }
+
+    /**
+     * Runs a command.
+     *
+     * @param command the command name
+     * @param args    the arguments of the command
+     * @return the exit code
+     */
+    public int run(String command, List<String> args) {
+        try {
+            switch (command) {
+                case "cfg":
+                    return cfg();
+                case "vdm":
+                    if (args.size() != 1) {
+                        return usage("vdm requires a plan file");
+                    }
+                    return vdm(Paths.get(args.get(0)));
+                case "calibrate":
+                    return calibrate(args);
+                case "wav":
+                    return wav(args);
+                case "backup":
+                    return backup(args);
+                case "verify":
+                    if (args.size() > 1) {
+                        return usage("verify accepts at most one folder");
+                    }
+                    return verify(args.isEmpty() ? cfg.getMoviePath() : Paths.get(args.get(0)));
+                default:
+                    return usage("Unknown command: " + command);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return EXIT_ERROR;
+        } catch (InterruptedException e) {
+            System.err.println("Command interrupted: " + command);
+            return EXIT_ERROR;
+        } catch (IOException e) {
+            log.log(Level.FINE, "Command failed: " + command, e);
+            System.err.println("Command failed: " + e);
+            return EXIT_ERROR;
+        }
+    }
+
+    private int cfg() throws IOException {
+        MovieManager movies = new MovieManager(cfg);
+        cfg.saveToCfg();
+        movies.createMovienameCfgs();
+        try {
+            movies.movieOffset();
+        } catch (IOException e) {
+            log.info("Could not detect current movie slot");
+        }
+        System.out.println("cfg\t" + Paths.get("cfg").toAbsolutePath());
+        return EXIT_OK;
+    }
+
+    private int vdm(Path planFile) throws IOException {
+        Path tfpath = cfg.getTfPath();
+        if (tfpath == null || tfpath.toString().isEmpty()) {
+            System.err.println("TF2 folder is not set in the settings");
+            return EXIT_ERROR;
+        }
+        TickPlan plan = TickPlan.read(planFile, tfpath);
+        DemoCatalog catalog = new DemoCatalog(Paths.get("demos.lwc"));
+        for (Path path : plan.generate(cfg, catalog)) {
+            String kind = path.toString().endsWith(".vdm") ? "vdm" : "cfg";
+            System.out.println(kind + "\t" + path.toAbsolutePath());
+        }
+        return EXIT_OK;
+    }
+
+    private int verify(Path folder) throws IOException, InterruptedException {
+        if (folder == null || folder.toString().isEmpty()) {
+            System.err.println("Movie folder is not set in the settings");
+            return EXIT_ERROR;
+        }
+        FrameIntegrityScanner scanner =
+            new FrameIntegrityScanner(Runtime.getRuntime().availableProcessors());
+        boolean clean = true;
+        for (FrameIntegrityScanner.Report r : scanner.scan(folder)) {
+            System.out.println("segment\t" + r.getPrefix() + "\t" + r.getFrames() + "\t"
+                + r.getMissingCount() + "\t" + r.getEmpty().size() + "\t" + r.getTruncated().size()
+                + "\t" + r.getDuplicates().size());
+            for (int[] range : r.getMissing()) {
+                System.out.println("missing\t" + r.getPrefix() + "\t" + range[0] + "-" + range[1]);
+            }
+            for (Path path : r.getEmpty()) {
+                System.out.println("empty\t" + path.toAbsolutePath());
+            }
+            for (Path path : r.getTruncated()) {
+                System.out.println("truncated\t" + path.toAbsolutePath());
+            }
+            for (Path path : r.getDuplicates()) {
+                System.out.println("duplicate\t" + path.toAbsolutePath());
+            }
+            clean &= r.isClean();
+        }
+        return clean ? EXIT_OK : EXIT_ERROR;
+    }
+
+    private int wav(List<String> args) throws IOException {
+        if (args.size() >= 2 && args.get(0).equals("info")) {
+            for (String file : args.subList(1, args.size())) {
+                WavFile wav = WavFile.read(Paths.get(file));
+                System.out.println(file + "\t" + wav.getChannels() + "\t" + wav.getSampleRate() + "\t"
+                    + wav.getBitsPerSample() + "\t" + wav.getSampleCount() + "\t" + wav.getSeconds());
+            }
+            return EXIT_OK;
+        } else if (args.size() >= 3 && args.get(0).equals("concat")) {
+            List<String> rest = args.subList(1, args.size());
+            int fps = 0;
+            if (rest.get(0).equals("--fps")) {
+                fps = Integer.parseInt(rest.get(1));
+                rest = rest.subList(2, rest.size());
+            }
+            if (rest.size() < 2) {
+                return usage("wav concat requires an output and at least one input");
+            }
+            List<Path> inputs = new ArrayList<>();
+            for (String file : rest.subList(1, rest.size())) {
+                inputs.add(Paths.get(file));
+            }
+            long samples = WavTool.concat(inputs, Paths.get(rest.get(0)), fps);
+            System.out.println(Paths.get(rest.get(0)).toAbsolutePath() + "\t" + samples);
+            return EXIT_OK;
+        } else if ((args.size() == 5 || args.size() == 6) && args.get(0).equals("trim")) {
+            long end = args.size() == 6 ? Long.parseLong(args.get(5)) : -1;
+            long samples = WavTool.trim(Paths.get(args.get(2)), Paths.get(args.get(3)),
+                Integer.parseInt(args.get(1)), Long.parseLong(args.get(4)), end);
+            System.out.println(Paths.get(args.get(3)).toAbsolutePath() + "\t" + samples);
+            return EXIT_OK;
+        }
+        return usage("Invalid wav arguments");
+    }
+
+    private int backup(List<String> args) throws IOException, InterruptedException {
+        Path tfpath = cfg.getTfPath();
+        if (tfpath == null || tfpath.toString().isEmpty()) {
+            System.err.println("TF2 folder is not set in the settings");
+            return EXIT_ERROR;
+        }
+        BackupStore store = new BackupStore(tfpath.resolve("lwrtbackup"),
+            cfg.getInt(SettingsManager.Key.BackupThreads));
+        if (args.size() == 1 && args.get(0).equals("list")) {
+            for (BackupStore.Snapshot s : store.list()) {
+                System.out.println(s.getId() + "\t" + s.getFiles() + "\t" + s.getBytes() + "\t"
+                    + s.getAddedBytes());
+            }
+            return EXIT_OK;
+        } else if (args.size() == 1 && args.get(0).equals("create")) {
+            // while Lawena's files are installed the user's own are in the lwrt folders
+            Map<String, Path> folders = new LinkedHashMap<>();
+            for (String name : Arrays.asList("cfg", "custom")) {
+                Path moved = tfpath.resolve("lwrt" + name);
+                folders.put(name, Files.exists(moved) ? moved : tfpath.resolve(name));
+            }
+            BackupStore.Snapshot s = store.backup(folders, null);
+            System.out.println(s.getId() + "\t" + s.getFiles() + "\t" + s.getBytes() + "\t"
+                + s.getAddedBytes());
+            return EXIT_OK;
+        } else if (args.size() == 3 && args.get(0).equals("restore")) {
+            Path target = Paths.get(args.get(2));
+            int files = store.restore(args.get(1), target);
+            System.out.println(target.toAbsolutePath() + "\t" + files);
+            return EXIT_OK;
+        } else if (args.size() == 3 && args.get(0).equals("export")) {
+            Path zip = Paths.get(args.get(2));
+            ParallelZipArchiver.Result result = store.export(args.get(1), zip);
+            System.out.println(zip.toAbsolutePath() + "\t" + result.getCompressedBytes());
+            return EXIT_OK;
+        } else if (args.size() == 2 && args.get(0).equals("delete")) {
+            store.load(args.get(1));
+            store.delete(args.get(1));
+            System.out.println("freed\t" + store.collect());
+            return EXIT_OK;
+        } else if (args.size() == 2 && args.get(0).equals("prune")) {
+            int keep = Integer.parseInt(args.get(1));
+            if (keep < 1) {
+                return usage("backup prune must keep at least one snapshot");
+            }
+            int deleted = store.prune(keep);
+            System.out.println("pruned\t" + deleted);
+            return EXIT_OK;
+        }
+        return usage("Invalid backup arguments");
+    }
+
+    private int calibrate(List<String> args) {
+        if (args.size() == 2 && args.get(0).equals("skipahead")) {
+            SkipPlanner.calibrateSkipAhead(cfg, Long.parseLong(args.get(1)));
+        } else if ((args.size() == 3 || args.size() == 4) && args.get(0).equals("timescale")) {
+            double tickInterval = args.size() == 4 ? Double.parseDouble(args.get(3)) : 0.015;
+            SkipPlanner.calibrateTimescale(cfg, Integer.parseInt(args.get(1)), tickInterval,
+                Long.parseLong(args.get(2)));
+        } else {
+            return usage("Invalid calibrate arguments");
+        }
+        cfg.save();
+        System.out.println(SettingsManager.Key.VdmSkipAheadMillis + "\t"
+            + cfg.getInt(SettingsManager.Key.VdmSkipAheadMillis));
+        System.out.println(SettingsManager.Key.VdmTimescaleEfficiency + "\t"
+            + cfg.getInt(SettingsManager.Key.VdmTimescaleEfficiency));
+        return EXIT_OK;
+    }
+
+}
@@ -0,0 +1,426 @@
+package lwrt;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the files Lawena installed into the game folder, so a launch only copies what changed
+ * since the previous one. For each installed file it records its source with the source size,
+ * modification time and SHA-1 hash, and the size and modification time of the installed copy.
+ * <p>
+ * A file is copied again when its installed copy was modified or its source changed contents. A
+ * source that was only touched is recognized by its hash and not copied. Files found in the
+ * managed folders that are not part of the install are deleted. A file that can't be installed or
+ * deleted is logged and skipped, so the rest of the install goes on.
+ */
+class InstallManifest {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final int MAGIC = 0x4c57494d; // LWIM
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * @param file where the manifest is kept
+     */
+    public InstallManifest(Path file) {
+        this.file = file;
+        load();
+    }
+
+    private static byte[] hash(Path path) throws IOException {
+        MessageDigest digest = sha1();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            byte[] buf = new byte[64 * 1024];
+            while (in.read(buf) >= 0) {
+                // digest while reading
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha1() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void load() {
+        entries.clear();
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in =
+                 new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.info("Discarding install manifest with unknown format: " + file);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                Entry e = new Entry();
+                e.source = in.readUTF();
+                e.size = in.readLong();
+                e.modified = in.readLong();
+                e.hash = new byte[in.readUnsignedByte()];
+                in.readFully(e.hash);
+                e.installedSize = in.readLong();
+                e.installedModified = in.readLong();
+                entries.put(key, e);
+            }
+            log.fine("Install manifest loaded with " + entries.size() + " files");
+        } catch (IOException e) {
+            entries.clear();
+            log.log(Level.INFO, "Could not load install manifest", e);
+        }
+    }
+
+    /**
+     * Writes the manifest to disk.
+     */
+    public void save() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out =
+                     new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                    Entry e = me.getValue();
+                    out.writeUTF(me.getKey());
+                    out.writeUTF(e.source);
+                    out.writeLong(e.size);
+                    out.writeLong(e.modified);
+                    out.writeByte(e.hash.length);
+                    out.write(e.hash);
+                    out.writeLong(e.installedSize);
+                    out.writeLong(e.installedModified);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.log(Level.INFO, "Could not save install manifest", e);
+        }
+    }
+
+    /**
+     * Forgets all installed files, so the next install copies everything.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Brings the managed folders in line with a plan: copies the planned files that are missing or
+     * changed and deletes everything else. Files that fail are left out and listed in the result.
+     * The manifest is saved even if the install fails.
+     *
+     * @param root      the game folder the plan is relative to
+     * @param plan      the files to install
+     * @param installer puts each changed file in place
+     * @return what was done
+     * @throws IOException if a folder of the plan could not be created
+     */
+    public Result sync(Path root, Plan plan, FileInstaller installer) throws IOException {
+        long start = System.currentTimeMillis();
+        Result result = new Result();
+        try {
+            for (Map.Entry<String, Source> planned : plan.files.entrySet()) {
+                String key = planned.getKey();
+                Source source = planned.getValue();
+                Path dest = root.resolve(key);
+                try {
+                    BasicFileAttributes sa = Files.readAttributes(source.path, BasicFileAttributes.class);
+                    if (isInstalled(key, source, sa, dest)) {
+                        result.unchanged++;
+                        continue;
+                    }
+                    install(key, source, sa, dest, installer);
+                    result.copied++;
+                    result.bytes += sa.size();
+                } catch (IOException e) {
+                    log.info("Could not install " + key + ": " + e);
+                    entries.remove(key);
+                    result.failed.add(key);
+                    try {
+                        Files.deleteIfExists(dest);
+                    } catch (IOException ex) {
+                        log.fine("Could not delete partially installed file: " + ex);
+                    }
+                }
+            }
+            entries.keySet().retainAll(plan.files.keySet());
+            for (String folder : plan.folders) {
+                Path path = root.resolve(folder);
+                if (Files.isDirectory(path)) {
+                    result.deleted += clean(root, path, plan);
+                }
+            }
+            for (String dir : plan.dirs) {
+                Files.createDirectories(root.resolve(dir));
+            }
+        } finally {
+            save();
+        }
+        result.millis = System.currentTimeMillis() - start;
+        log.fine("Installed files: " + result + " (" + installer.getLinked() + " linked, "
+            + installer.getCloned() + " cloned)");
+        return result;
+    }
+
+    private boolean isInstalled(String key, Source source, BasicFileAttributes sa, Path dest)
+        throws IOException {
+        Entry e = entries.get(key);
+        if (e == null || !e.source.equals(source.path.toString())) {
+            return false;
+        }
+        BasicFileAttributes da;
+        try {
+            da = Files.readAttributes(dest, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            return false;
+        }
+        if (da.size() != e.installedSize || da.lastModifiedTime().toMillis() != e.installedModified) {
+            // the installed copy was changed after it was installed
+            return false;
+        }
+        if (sa.size() != e.size) {
+            return false;
+        }
+        long modified = sa.lastModifiedTime().toMillis();
+        if (modified == e.modified) {
+            return true;
+        }
+        // the source was touched, it only needs copying if its contents changed
+        if (e.hash.length > 0 && Arrays.equals(hash(source.path), e.hash)) {
+            e.modified = modified;
+            return true;
+        }
+        return false;
+    }
+
+    private void install(String key, Source source, BasicFileAttributes sa, Path dest,
+                         FileInstaller installer) throws IOException {
+        Files.createDirectories(dest.getParent());
+        log.finer("Installing file: " + source.path + " -> " + dest);
+        MessageDigest digest = sha1();
+        boolean copied = installer.install(source.path, dest, source.readOnly, digest);
+        BasicFileAttributes da = Files.readAttributes(dest, BasicFileAttributes.class);
+        Entry e = new Entry();
+        e.source = source.path.toString();
+        e.size = sa.size();
+        e.modified = sa.lastModifiedTime().toMillis();
+        // linked and cloned files were not read, their hash is left empty
+        e.hash = copied ? digest.digest() : new byte[0];
+        e.installedSize = da.size();
+        e.installedModified = da.lastModifiedTime().toMillis();
+        entries.put(key, e);
+    }
+
+    private static int clean(final Path root, final Path folder, final Plan plan) throws IOException {
+        final int[] deleted = {0};
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String key = key(root, file);
+                if (!plan.files.containsKey(key) && !plan.kept.contains(key)) {
+                    log.finer("Deleting file: " + file);
+                    try {
+                        file.toFile().setWritable(true);
+                        Files.delete(file);
+                        deleted[0]++;
+                    } catch (IOException e) {
+                        // a file locked by another program, it will be deleted next time
+                        log.info("Could not delete " + key + ": " + e);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                if (e != null) {
+                    log.info("Could not clean " + dir + ": " + e);
+                    return FileVisitResult.CONTINUE;
+                }
+                if (!dir.equals(folder) && !plan.dirs.contains(key(root, dir))) {
+                    try {
+                        boolean empty;
+                        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                            empty = !stream.iterator().hasNext();
+                        }
+                        if (empty) {
+                            Files.delete(dir);
+                        }
+                    } catch (IOException ex) {
+                        log.fine("Could not delete folder " + dir + ": " + ex);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.info("Could not clean " + file + ": " + e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted[0];
+    }
+
+    private static String key(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    /**
+     * The files an install is made of, each given by its path relative to the game folder.
+     */
+    public static class Plan {
+
+        private final Map<String, Source> files = new LinkedHashMap<>();
+        private final Set<String> kept = new HashSet<>();
+        private final Set<String> dirs = new HashSet<>();
+        private final Set<String> folders = new LinkedHashSet<>();
+
+        /**
+         * @param folder a folder owned by the install, where files not in the plan are deleted
+         */
+        public void manage(String folder) {
+            folders.add(folder);
+        }
+
+        /**
+         * @param dest     where to install the file
+         * @param source   the file to install
+         * @param readOnly <code>true</code> to make the installed file read-only
+         */
+        public void add(String dest, Path source, boolean readOnly) {
+            files.put(dest, new Source(source, readOnly));
+        }
+
+        /**
+         * Adds all files in a folder, with the same layout. A folder that does not exist adds
+         * nothing.
+         *
+         * @param dest     where to install the folder contents
+         * @param source   the folder to install
+         * @param readOnly <code>true</code> to make the installed files read-only
+         * @throws IOException if the folder could not be listed
+         */
+        public void addTree(final String dest, final Path source, final boolean readOnly)
+            throws IOException {
+            if (!Files.isDirectory(source)) {
+                log.fine("Nothing to install from missing folder: " + source);
+                return;
+            }
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    dirs.add(join(dest, source.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    add(join(dest, source.relativize(file)), file, readOnly);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        /**
+         * @param dest a folder that must exist after the install, even if empty
+         */
+        public void dir(String dest) {
+            dirs.add(dest);
+        }
+
+        /**
+         * @param dest a file installed by other means that must not be deleted
+         */
+        public void keep(String dest) {
+            kept.add(dest);
+        }
+
+        private static String join(String dest, Path relative) {
+            String rel = relative.toString().replace('\\', '/');
+            return rel.isEmpty() ? dest : dest + "/" + rel;
+        }
+    }
+
+    public static class Result {
+        private int copied = 0;
+        private int unchanged = 0;
+        private int deleted = 0;
+        private final List<String> failed = new ArrayList<>();
+        private long bytes = 0;
+        private long millis = 0;
+
+        public int getCopied() {
+            return copied;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return the planned files that could not be installed
+         */
+        public List<String> getFailed() {
+            return failed;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return copied + " installed (" + bytes + " bytes), " + unchanged + " unchanged, " + deleted
+                + " deleted, " + failed.size() + " failed in " + millis + " ms";
+        }
+    }
+
+    private static class Source {
+        private final Path path;
+        private final boolean readOnly;
+
+        Source(Path path, boolean readOnly) {
+            this.path = path;
+            this.readOnly = readOnly;
+        }
+    }
+
+    private static class Entry {
+        private String source;
+        private long size;
+        private long modified;
+        private byte[] hash;
+        private long installedSize;
+        private long installedModified;
+    }
+
+}
@@ -10,6 +10,8 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.filechooser.FileFilter;
@@ -38,6 +40,7 @@ import java.nio.file.*;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -59,6 +62,7 @@ public class Lawena {
     private AboutDialog dialog;
     private ParticlesDialog particles;
     private SegmentsDialog segments;
+    private Map<String, ImageIcon> contactSheets = new ConcurrentHashMap<>();
     private CustomSettingsDialog customSettings;
     private HashMap<String, ImageIcon> skyboxMap;
     private JFileChooser chooser;
@@ -135,6 +139,9 @@ public class Lawena {
         }
         movies = new MovieManager(settings);
         settings.setMoviePath(moviepath);
+        movies.watch();
+        movies.setRecompressFrames(settings.getBoolean(Key.RecompressFrames));
+        movies.setEncodeSegments(settings.getBoolean(Key.EncodeSegments));
 
         log.fine("Saving settings to file");
         settings.save();
@@ -479,6 +486,13 @@ public class Lawena {
                 startSegmentsDialog();
             }
         });
+        view.getMntmVerifyMovieFiles().addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                new VerifyMoviesTask().execute();
+            }
+        });
         view.getMntmOpenMovieFolder().addActionListener(new ActionListener() {
 
             @Override
@@ -764,6 +778,15 @@ public class Lawena {
                 d.setVisible(false);
             }
         });
+        tableSegments.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if (!e.getValueIsAdjusting()) {
+                    updateSegmentPreview();
+                }
+            }
+        });
         tableSegments.setModel(dtm);
         tableSegments.getColumnModel().getColumn(0).setMaxWidth(20);
         return d;
@@ -783,22 +806,32 @@ public class Lawena {
             for (String seg : segs) {
                 tmodel.addRow(new Object[]{false, seg});
             }
+            updateSegmentPreview();
+            ContactSheetsTask task = new ContactSheetsTask(segs);
+            task.execute();
             segments.setVisible(true);
+            task.cancel(true);
+        }
+    }
+
+    private void updateSegmentPreview() {
+        JTable table = segments.getTableSegments();
+        JLabel label = segments.getLblPreview();
+        int row = table.getSelectedRow();
+        if (row < 0) {
+            label.setIcon(null);
+            label.setText("Select a segment to preview it");
+            return;
         }
+        ImageIcon sheet = contactSheets.get((String) table.getValueAt(row, 1));
+        label.setIcon(sheet);
+        label.setText(sheet == null ? "Generating preview..." : null);
     }
 
     private List<String> getExistingSegments() {
         List<String> existingSegments = new ArrayList<>();
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(settings.getMoviePath(), "*.wav")) {
-            for (Path path : stream) {
-                String segname = path.getFileName().toString();
-                int index = segname.indexOf("_");
-                if (index > 0) {
-                    String key = segname.substring(0, segname.indexOf("_"));
-                    if (!existingSegments.contains(key))
-                        existingSegments.add(key);
-                }
-            }
+        try {
+            existingSegments.addAll(movies.getIndex().getSegments());
         } catch (NoSuchFileException e) {
             // TODO: add a check for the reparse point (junction) to confirm it's SrcDemo2
             log.info("Could not scan for existing segments. Is SrcDemo2 running?");
@@ -869,6 +902,8 @@ public class Lawena {
         view.getSteamLaunch().setSelected(settings.getString(Key.LaunchMode).equals("steam"));
         view.getHlaeLaunch().setSelected(settings.getString(Key.LaunchMode).equals("hlae"));
         view.getCopyUserConfig().setSelected(settings.getBoolean(Key.CopyUserConfig));
+        view.getRecompressFrames().setSelected(settings.getBoolean(Key.RecompressFrames));
+        view.getEncodeSegments().setSelected(settings.getBoolean(Key.EncodeSegments));
         view.getUsePlayerModel().setSelected(settings.getHudPlayerModel());
         view.getCmbSourceVideoFormat().setSelectedItem(
             settings.getString(Key.SourceRecorderVideoFormat).toUpperCase());
@@ -917,6 +952,10 @@ public class Lawena {
             .setBoolean(Key.DeleteBackupsWhenRestoring, view.getChckbxmntmBackupMode().isSelected());
         settings.setBoolean(Key.InstallFonts, view.getInstallFonts().isSelected());
         settings.setBoolean(Key.CopyUserConfig, view.getCopyUserConfig().isSelected());
+        settings.setBoolean(Key.RecompressFrames, view.getRecompressFrames().isSelected());
+        movies.setRecompressFrames(settings.getBoolean(Key.RecompressFrames));
+        settings.setBoolean(Key.EncodeSegments, view.getEncodeSegments().isSelected());
+        movies.setEncodeSegments(settings.getBoolean(Key.EncodeSegments));
         if (view.getSourceLaunch().isSelected()) {
             settings.setString(Key.LaunchMode, "hl2");
         } else if (view.getSteamLaunch().isSelected()) {
@@ -939,6 +978,7 @@ public class Lawena {
 
     private void saveAndExit() {
         saveSettings();
+        movies.saveIndex();
         view.setVisible(false);
         if (!cl.isRunningTF2()) {
             files.restoreAll();
@@ -1111,6 +1151,7 @@ public class Lawena {
                 Path newpath = getChosenMoviePath();
                 if (newpath != null) {
                     settings.setMoviePath(newpath);
+                    movies.watch();
                     JOptionPane.showMessageDialog(view, String.format("New movie folder: %s", newpath, //$NON-NLS-1$
                         "Change Movie Folder", //$NON-NLS-1$
                         JOptionPane.INFORMATION_MESSAGE));
@@ -1122,7 +1163,7 @@ public class Lawena {
 
     }
 
-    public class ClearMoviesTask extends SwingWorker<Void, Path> {
+    public class ClearMoviesTask extends SwingWorker<Void, String> {
 
         private int count = 0;
         private List<String> segmentsToDelete;
@@ -1144,12 +1185,10 @@ public class Lawena {
                 }
             });
             if (clearMoviesTask == null) {
-                String segmentsGlob = "";
                 if (segmentsToDelete != null && !segmentsToDelete.isEmpty()) {
-                    segmentsGlob =
-                        segmentsToDelete.toString().replace("[", "{").replace("]", "}").replace(" ", "");
-                    log.info("Deleting segments: " + segmentsGlob);
+                    log.info("Deleting segments: " + segmentsToDelete);
                 } else {
+                    segmentsToDelete = null;
                     int answer =
                         JOptionPane.showConfirmDialog(view,
                             "Are you sure you want to clear ALL movie files?", "Clearing Movie Files",
@@ -1158,8 +1197,9 @@ public class Lawena {
                         return null;
                     }
                 }
-                try (DirectoryStream<Path> stream =
-                         Files.newDirectoryStream(settings.getMoviePath(), segmentsGlob + "*.{tga,wav}")) {
+                try {
+                    MovieIndex index = movies.getIndex();
+                    List<Path> files = index.getFiles(segmentsToDelete);
 
                     clearMoviesTask = this;
                     setCurrentWorker(this, true);
@@ -1172,17 +1212,28 @@ public class Lawena {
                         }
                     });
 
-                    for (Path path : stream) {
-                        if (isCancelled()) {
-                            break;
-                        }
-                        try {
-                            path.toFile().setWritable(true);
-                            Files.delete(path);
-                            publish(path);
-                        } catch (IOException e) {
-                            log.log(Level.INFO, "Could not delete a file", e);
+                    BulkDeleter deleter = new BulkDeleter(settings.getInt(Key.ClearMoviesThreads));
+                    try {
+                        BulkDeleter.Result result =
+                            deleter.delete(files, new BulkDeleter.ProgressListener() {
+
+                                @Override
+                                public void progress(int processed, int total, double filesPerSecond) {
+                                    publish(String.format("Deleting files from movie folder: %d/%d (%.0f files/s)",
+                                        processed, total, filesPerSecond));
+                                }
+                            });
+                        count = result.getDeleted();
+                        log.fine(String.format("Deleted %d files in %d ms (%.0f files/s)", count,
+                            result.getMillis(), result.getFilesPerSecond()));
+                        if (result.getFailed() > 0) {
+                            log.info("Could not delete " + result.getFailed() + " files from movie folder");
+                            index.invalidate();
+                        } else {
+                            index.removeSegments(segmentsToDelete);
                         }
+                    } catch (InterruptedException e) {
+                        index.invalidate();
                     }
 
                 } catch (IOException ex) {
@@ -1198,9 +1249,8 @@ public class Lawena {
         }
 
         @Override
-        protected void process(List<Path> chunks) {
-            count += chunks.size();
-            status.info("Deleting " + count + " files from movie folder...");
+        protected void process(List<String> chunks) {
+            status.info(chunks.get(chunks.size() - 1));
         }
 
         @Override
@@ -1221,16 +1271,133 @@ public class Lawena {
 
     }
 
+    public class ContactSheetsTask extends SwingWorker<Void, String> {
+
+        private final List<String> prefixes;
+
+        public ContactSheetsTask(List<String> prefixes) {
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            Path folder = settings.getMoviePath();
+            String hash = Integer.toHexString(folder.toAbsolutePath().toString().hashCode());
+            ContactSheets sheets = new ContactSheets(Paths.get("contactsheets", hash),
+                Runtime.getRuntime().availableProcessors(), settings.getInt(Key.ContactSheetFrames));
+            sheets.retain(prefixes);
+            contactSheets.clear();
+            sheets.build(folder, movies.getIndex(), prefixes, new ContactSheets.Listener() {
+
+                @Override
+                public void sheetReady(String prefix, BufferedImage sheet) {
+                    contactSheets.put(prefix, new ImageIcon(sheet));
+                    publish(prefix);
+                }
+            });
+            return null;
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            updateSegmentPreview();
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+            } catch (CancellationException | InterruptedException e) {
+                // dialog closed before all previews were ready
+            } catch (ExecutionException e) {
+                log.log(Level.FINE, "Could not generate segment previews", e.getCause());
+            }
+        }
+    }
+
+    public class VerifyMoviesTask extends SwingWorker<List<FrameIntegrityScanner.Report>, Void> {
+
+        @Override
+        protected List<FrameIntegrityScanner.Report> doInBackground() throws Exception {
+            SwingUtilities.invokeAndWait(new Runnable() {
+
+                @Override
+                public void run() {
+                    view.getMntmVerifyMovieFiles().setEnabled(false);
+                    status.info("Verifying movie files...");
+                }
+            });
+            FrameIntegrityScanner scanner =
+                new FrameIntegrityScanner(Runtime.getRuntime().availableProcessors());
+            return scanner.scan(settings.getMoviePath());
+        }
+
+        @Override
+        protected void done() {
+            view.getMntmVerifyMovieFiles().setEnabled(true);
+            try {
+                int problems = 0;
+                for (FrameIntegrityScanner.Report r : get()) {
+                    if (r.isClean()) {
+                        log.fine(r.toString());
+                    } else {
+                        problems++;
+                        log.info(r.toString());
+                        for (int[] range : r.getMissing()) {
+                            log.fine(r.getPrefix() + ": missing frames " + range[0] + "-" + range[1]);
+                        }
+                        for (Path path : r.getEmpty()) {
+                            log.fine("Empty frame: " + path.getFileName());
+                        }
+                        for (Path path : r.getTruncated()) {
+                            log.fine("Truncated frame: " + path.getFileName());
+                        }
+                        for (Path path : r.getDuplicates()) {
+                            log.fine("Duplicate frame: " + path.getFileName());
+                        }
+                    }
+                }
+                status.info(problems == 0 ? "All movie segments verified"
+                    : problems + " movie segments have damaged or missing frames, see the log");
+            } catch (CancellationException | InterruptedException e) {
+                status.info("");
+            } catch (ExecutionException e) {
+                log.log(Level.INFO, "Could not verify movie files", e.getCause());
+                status.info("");
+            }
+        }
+
+    }
+
     public class StartTfTask extends SwingWorker<Boolean, Void> {
 
+        private boolean owner = false;
+        private DemoEditor.Plan plan;
+        private boolean restoredAllFiles = false;
+
         @Override
         protected Boolean doInBackground() throws Exception {
+            boolean ranTf2Correctly;
             try {
-                return doStuff();
+                ranTf2Correctly = doStuff();
             } catch (Exception e) {
                 log.log(Level.WARNING, "Start operation was interrupted or failed", e);
-                return false;
+                ranTf2Correctly = false;
             }
+            // only the task that launched TF2 restores, a task started to stop TF2 leaves it to it
+            if (owner && !isCancelled()) {
+                // the backup made while restoring can take minutes with a big custom folder
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        view.getBtnStartTf().setEnabled(false);
+                    }
+                });
+                status.info("Restoring your files");
+                restoredAllFiles = files.restoreAll();
+            }
+            return ranTf2Correctly;
         }
 
         private Boolean doStuff() throws InvocationTargetException, InterruptedException {
@@ -1239,10 +1406,13 @@ public class Lawena {
                 @Override
                 public void run() {
                     view.getBtnStartTf().setEnabled(false);
+                    // the segments are edited on this thread, the budget check reads a copy
+                    plan = vdm.getPlan();
                 }
             });
             if (startTfTask == null) {
                 startTfTask = this;
+                owner = true;
                 setCurrentWorker(this, false);
                 setProgress(0);
 
@@ -1287,6 +1457,32 @@ public class Lawena {
                     log.info("Could not detect current movie slot");
                 }
 
+                // Warn if the movie folder is short on space or too slow for this recording
+                status.info("Checking movie folder space and speed...");
+                RecordingBudget budget = new RecordingBudget(settings);
+                List<String> warnings = budget.check(plan.getSeconds());
+                if (!warnings.isEmpty()) {
+                    final StringBuilder message = new StringBuilder();
+                    for (String warning : warnings) {
+                        log.warning(warning);
+                        message.append(warning).append("\n");
+                    }
+                    final int[] answer = new int[1];
+                    SwingUtilities.invokeAndWait(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            answer[0] = JOptionPane.showConfirmDialog(view, message + "\nStart anyway?",
+                                "Recording Budget", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+                        }
+                    });
+                    if (answer[0] != JOptionPane.YES_OPTION) {
+                        log.info("Launch cancelled because of the recording budget");
+                        status.info("");
+                        return false;
+                    }
+                }
+
                 setProgress(60);
 
                 // Backing up user files and copying lawena files
@@ -1321,7 +1517,7 @@ public class Lawena {
 
                 // Launching process
                 status.info("Launching TF2 process");
-                cl.startTf(settings);
+                Process launched = cl.startTf(settings);
 
                 SwingUtilities.invokeAndWait(new Runnable() {
 
@@ -1335,8 +1531,6 @@ public class Lawena {
 
                 int timeout = 0;
                 int cfgtimeout = settings.getLaunchTimeout();
-                int millis = 5000;
-                int maxtimeout = cfgtimeout / (millis / 1000);
                 setProgress(0);
                 status.info("Waiting for TF2 to start...");
                 if (cfgtimeout > 0) {
@@ -1344,44 +1538,40 @@ public class Lawena {
                 } else {
                     log.fine("TF2 launch timeout disabled");
                 }
-                while (!cl.isRunningTF2() && (cfgtimeout == 0 || timeout < maxtimeout)) {
-                    ++timeout;
-                    if (cfgtimeout > 0) {
-                        setProgress((int) ((double) timeout / maxtimeout * 100));
-                    }
-                    Thread.sleep(millis);
-                }
-
-                if (cfgtimeout > 0 && timeout >= maxtimeout) {
-                    int s = timeout * (millis / 1000);
-                    log.info("TF2 launch timed out after " + s + " seconds");
-                    status.info("TF2 did not start after " + s + " seconds");
-                    return false;
-                }
-
-                log.fine("TF2 has started running");
-                status.info("Waiting for TF2 to finish running...");
-                SwingUtilities.invokeLater(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        view.getProgressBar().setIndeterminate(true);
+                ProcessMonitor tf2 = new ProcessMonitor(cl, launched);
+                tf2.start();
+                try {
+                    while (!tf2.awaitStarted(1000)) {
+                        ++timeout;
+                        if (cfgtimeout > 0) {
+                            if (timeout >= cfgtimeout) {
+                                log.info("TF2 launch timed out after " + timeout + " seconds");
+                                status.info("TF2 did not start after " + timeout + " seconds");
+                                return false;
+                            }
+                            setProgress((int) ((double) timeout / cfgtimeout * 100));
+                        }
                     }
-                });
-                while (cl.isRunningTF2()) {
-                    Thread.sleep(millis);
+                    log.fine("TF2 has started running");
+                    waitForExit(tf2, budget);
+                } finally {
+                    tf2.stop();
                 }
-
-                Thread.sleep(5000);
                 closeOpenHandles();
 
             } else {
                 if (cl.isRunningTF2()) {
                     status.info("Attempting to finish TF2 process...");
                     cl.killTF2Process();
-                    Thread.sleep(5000);
-                    if (!cl.isRunningTF2()) {
-                        startTfTask.cancel(true);
+                    ProcessMonitor tf2 = new ProcessMonitor(cl, null);
+                    tf2.start();
+                    try {
+                        // the launching task sees the exit too, then restores the files and resets the UI
+                        if (!tf2.awaitExited(5000)) {
+                            log.info("TF2 did not exit after being asked to finish");
+                        }
+                    } finally {
+                        tf2.stop();
                     }
                     closeOpenHandles();
                 } else {
@@ -1392,6 +1582,44 @@ public class Lawena {
             return true;
         }
 
+        private void waitForExit(ProcessMonitor tf2, RecordingBudget budget) throws InterruptedException {
+            status.info("Waiting for TF2 to finish running...");
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    view.getProgressBar().setIndeterminate(true);
+                }
+            });
+            RecordingBudget.Monitor monitor = budget.startMonitor(movies);
+            final RecordingTelemetry telemetry = new RecordingTelemetry(movies,
+                settings.getInt(Key.RecordingStallSeconds));
+            telemetry.start();
+            javax.swing.Timer telemetryTimer = new javax.swing.Timer(1000, new ActionListener() {
+
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    view.getLblTelemetry().setText(telemetry.summary());
+                }
+            });
+            telemetryTimer.start();
+            try {
+                tf2.awaitExited(0);
+                movies.gameExited();
+            } finally {
+                telemetryTimer.stop();
+                telemetry.stop();
+                monitor.stop();
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        view.getLblTelemetry().setText("");
+                    }
+                });
+            }
+        }
+
         private void closeOpenHandles() {
             status.info("Closing open handles in TF2 'cfg' folder...");
             cl.closeHandles(settings.getTfPath().resolve("cfg"));
@@ -1420,7 +1648,7 @@ public class Lawena {
 
         @Override
         protected void done() {
-            if (!isCancelled()) {
+            if (owner && !isCancelled()) {
                 startTfTask = null;
                 setCurrentWorker(null, false);
                 view.getBtnStartTf().setEnabled(false);
@@ -1429,7 +1657,6 @@ public class Lawena {
                     ranTf2Correctly = get();
                 } catch (InterruptedException | ExecutionException ignored) {
                 }
-                boolean restoredAllFiles = files.restoreAll();
                 if (ranTf2Correctly) {
                     if (restoredAllFiles) {
                         status.info("TF2 has finished running. All files restored");
@@ -1440,6 +1667,9 @@ public class Lawena {
                 cl.setSystemDxLevel(oDxlevel);
                 view.getBtnStartTf().setText("Start Team Fortress 2");
                 view.getBtnStartTf().setEnabled(true);
+            } else if (!owner && startTfTask != null) {
+                // stopping again is harmless, a restore in progress is never interrupted
+                view.getBtnStartTf().setEnabled(true);
             }
         }
 
@@ -0,0 +1,576 @@
+package lwrt;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the segments recorded to the movie folder. Each segment prefix maps to its frame count,
+ * the total size of its frames and the number of its last frame, so looking up segments doesn't
+ * need to list every frame in the folder.
+ * <p>
+ * The index is saved next to the settings together with the modification time of the movie folder.
+ * On startup the folder is only scanned again if that time has changed, and while Lawena runs the
+ * index is kept current from the events of a {@link util.WatchDir}. Frame sizes are not tracked
+ * individually, so the byte total is estimated when frames are deleted by other programs.
+ * <p>
+ * Frames are counted separately for each image format, since a segment can hold both the frames
+ * written by the game and the ones converted by a {@link FrameRecompressor}.
+ * <p>
+ * This class is safe to use from multiple threads.
+ */
+class MovieIndex {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final int MAGIC = 0x4c574d49; // LWMI
+    private static final int VERSION = 2;
+    private static final Pattern FRAME = Pattern.compile("([^_]+)_(\\d+)\\.(tga|jpg|png)");
+    private static final Pattern AUDIO = Pattern.compile("([^_]+)_\\.wav");
+    private static final Pattern STRAY = Pattern.compile(".*\\.(tga|jpg|png|wav)");
+    private static final long SAVE_INTERVAL = 10000;
+
+    private final Path file;
+    private final Map<String, Segment> segments = new TreeMap<>();
+    private final Set<String> strays = new TreeSet<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private Path folder;
+    private long folderModified = -1;
+    private boolean valid = false;
+    private boolean watched = false;
+    private boolean dirty = false;
+    private long lastEvent = 0;
+    private long lastSave = 0;
+
+    public MovieIndex(Path file) {
+        this.file = file;
+    }
+
+    private static long modifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Makes sure the index matches the contents of a movie folder, loading it from disk if needed
+     * and scanning the folder again only if it was changed since the index was last saved.
+     *
+     * @param dir the movie folder
+     * @throws IOException if the movie folder could not be scanned
+     */
+    public synchronized void reconcile(Path dir) throws IOException {
+        dir = dir.toAbsolutePath().normalize();
+        if (!dir.equals(folder)) {
+            folder = dir;
+            valid = false;
+            watched = false;
+            load();
+        } else if (valid && watched) {
+            return;
+        }
+        long modified = modifiedTime(folder);
+        if (!valid || modified < 0 || modified != folderModified) {
+            rescan();
+        }
+    }
+
+    /**
+     * Marks the index as kept current by a watcher, so {@link #reconcile(Path)} can skip checking
+     * the movie folder.
+     *
+     * @param watched <code>true</code> if events of the movie folder are being received
+     */
+    public synchronized void setWatched(boolean watched) {
+        this.watched = watched;
+    }
+
+    /**
+     * Forces a scan of the movie folder on the next {@link #reconcile(Path)}.
+     */
+    public synchronized void invalidate() {
+        valid = false;
+    }
+
+    private void load() {
+        segments.clear();
+        strays.clear();
+        folderModified = -1;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in =
+                 new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.info("Discarding movie index with unknown format: " + file);
+                return;
+            }
+            if (!in.readUTF().equals(folder.toString())) {
+                log.fine("Movie index belongs to a different folder, will scan again");
+                return;
+            }
+            long modified = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String prefix = in.readUTF();
+                Segment s = new Segment();
+                int formats = in.readInt();
+                for (int j = 0; j < formats; j++) {
+                    Frames f = s.frames(in.readUTF());
+                    f.count = in.readInt();
+                    f.bytes = in.readLong();
+                    f.last = in.readInt();
+                }
+                s.audioBytes = in.readLong();
+                segments.put(prefix, s);
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                strays.add(in.readUTF());
+            }
+            folderModified = modified;
+            valid = true;
+            log.fine("Movie index loaded with " + segments.size() + " segments");
+        } catch (IOException e) {
+            segments.clear();
+            strays.clear();
+            log.log(Level.INFO, "Could not load movie index", e);
+        }
+    }
+
+    /**
+     * Lists the whole movie folder to rebuild the index.
+     *
+     * @throws IOException if the movie folder could not be listed
+     */
+    public synchronized void rescan() throws IOException {
+        long start = System.currentTimeMillis();
+        long modified = modifiedTime(folder);
+        segments.clear();
+        strays.clear();
+        valid = false;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (attrs.isRegularFile()) {
+                    add(path.getFileName().toString(), attrs.size());
+                }
+            }
+        }
+        folderModified = modified;
+        valid = true;
+        lastEvent = start;
+        dirty = true;
+        save();
+        log.fine("Movie folder scanned in " + (System.currentTimeMillis() - start) + " ms: "
+            + segments.size() + " segments");
+    }
+
+    private void add(String name, long size) {
+        Matcher m = FRAME.matcher(name);
+        if (m.matches()) {
+            Frames f = segment(m.group(1)).frames(m.group(3));
+            f.count++;
+            f.bytes += size;
+            f.last = Math.max(f.last, Integer.parseInt(m.group(2)));
+            return;
+        }
+        m = AUDIO.matcher(name);
+        if (m.matches()) {
+            segment(m.group(1)).audioBytes = size;
+            return;
+        }
+        if (STRAY.matcher(name).matches()) {
+            strays.add(name);
+        }
+    }
+
+    private Segment segment(String prefix) {
+        Segment s = segments.get(prefix);
+        if (s == null) {
+            s = new Segment();
+            segments.put(prefix, s);
+        }
+        return s;
+    }
+
+    private boolean accept(Path child) {
+        return valid && folder != null && folder.equals(child.getParent());
+    }
+
+    private void changed() {
+        dirty = true;
+        lastEvent = System.currentTimeMillis();
+        if (lastEvent - lastSave > SAVE_INTERVAL) {
+            save();
+        }
+    }
+
+    /**
+     * Updates the index after a file was created in the movie folder.
+     *
+     * @param child the new file
+     */
+    public void fileCreated(Path child) {
+        Matcher m = FRAME.matcher(child.getFileName().toString());
+        synchronized (this) {
+            if (!accept(child)) {
+                return;
+            }
+            if (m.matches()) {
+                Frames f = segment(m.group(1)).frames(m.group(3));
+                int frame = Integer.parseInt(m.group(2));
+                long size = size(child);
+                if (f.count == 0 || frame > f.last) {
+                    f.count++;
+                    f.bytes += size;
+                    f.last = Math.max(f.last, frame);
+                    f.current = frame;
+                    f.currentBytes = size;
+                } else if (frame == f.current) {
+                    f.bytes += size - f.currentBytes;
+                    f.currentBytes = size;
+                } else if (f.count <= f.last) {
+                    // fills a gap left by a deleted frame
+                    f.count++;
+                    f.bytes += size;
+                }
+            } else {
+                add(child.getFileName().toString(), size(child));
+            }
+            changed();
+        }
+        if (m.matches()) {
+            fireFrameChanged(m.group(1), Integer.parseInt(m.group(2)), child, true);
+        }
+    }
+
+    /**
+     * Updates the index after a file was written to in the movie folder. Only the most recent frame
+     * of each segment and its audio file are expected to change.
+     *
+     * @param child the modified file
+     */
+    public void fileModified(Path child) {
+        String name = child.getFileName().toString();
+        Matcher m = FRAME.matcher(name);
+        boolean created = false;
+        synchronized (this) {
+            if (!accept(child)) {
+                return;
+            }
+            if (m.matches()) {
+                Segment s = segments.get(m.group(1));
+                Frames f = s == null ? null : s.formats.get(m.group(3));
+                if (f == null) {
+                    created = true;
+                } else if (Integer.parseInt(m.group(2)) == f.current) {
+                    long size = size(child);
+                    f.bytes += size - f.currentBytes;
+                    f.currentBytes = size;
+                    changed();
+                }
+            } else if (AUDIO.matcher(name).matches()) {
+                add(name, size(child));
+                changed();
+                return;
+            } else {
+                return;
+            }
+        }
+        if (created) {
+            fileCreated(child);
+        } else {
+            fireFrameChanged(m.group(1), Integer.parseInt(m.group(2)), child, false);
+        }
+    }
+
+    /**
+     * Updates the index after a file was deleted from the movie folder.
+     *
+     * @param child the deleted file
+     */
+    public synchronized void fileDeleted(Path child) {
+        if (!accept(child)) {
+            return;
+        }
+        String name = child.getFileName().toString();
+        Matcher m = FRAME.matcher(name);
+        if (m.matches()) {
+            Segment s = segments.get(m.group(1));
+            Frames f = s == null ? null : s.formats.get(m.group(3));
+            if (f != null && f.count > 0) {
+                if (Integer.parseInt(m.group(2)) == f.current) {
+                    f.bytes -= f.currentBytes;
+                    f.current = -1;
+                    f.currentBytes = 0;
+                } else {
+                    f.bytes -= f.bytes / f.count;
+                }
+                f.count--;
+                f.bytes = Math.max(0, f.bytes);
+                if (f.count == 0) {
+                    s.formats.remove(m.group(3));
+                }
+                removeIfEmpty(m.group(1), s);
+            }
+        } else if ((m = AUDIO.matcher(name)).matches()) {
+            Segment s = segments.get(m.group(1));
+            if (s != null) {
+                s.audioBytes = -1;
+                removeIfEmpty(m.group(1), s);
+            }
+        } else {
+            strays.remove(name);
+        }
+        changed();
+    }
+
+    private void removeIfEmpty(String prefix, Segment s) {
+        if (s.formats.isEmpty() && s.audioBytes < 0) {
+            segments.remove(prefix);
+        }
+    }
+
+    /**
+     * Removes segments from the index after their files were deleted.
+     *
+     * @param prefixes the segments to remove, or <code>null</code> to remove all segments and
+     *                 unrecognized movie files
+     */
+    public synchronized void removeSegments(Collection<String> prefixes) {
+        if (prefixes == null) {
+            segments.clear();
+            strays.clear();
+        } else {
+            segments.keySet().removeAll(prefixes);
+        }
+        changed();
+    }
+
+    /**
+     * @return the prefixes of the segments in the movie folder, in alphabetical order
+     */
+    public synchronized List<String> getSegments() {
+        return new ArrayList<>(segments.keySet());
+    }
+
+    /**
+     * @return the segment with the given prefix, or <code>null</code> if there is none
+     */
+    public synchronized Segment getSegment(String prefix) {
+        Segment s = segments.get(prefix);
+        return s == null ? null : s.copy();
+    }
+
+    /**
+     * Builds the names of the files of some segments from their frame numbers, without listing the
+     * movie folder. Some of the files might no longer exist if frames were deleted.
+     *
+     * @param prefixes the segments to include, or <code>null</code> to include all segments and
+     *                 unrecognized movie files
+     * @return the paths of the files
+     */
+    public synchronized List<Path> getFiles(Collection<String> prefixes) {
+        List<Path> files = new ArrayList<>();
+        for (Map.Entry<String, Segment> e : segments.entrySet()) {
+            if (prefixes != null && !prefixes.contains(e.getKey())) {
+                continue;
+            }
+            Segment s = e.getValue();
+            for (Map.Entry<String, Frames> f : s.formats.entrySet()) {
+                for (int i = 0; i <= f.getValue().last; i++) {
+                    files.add(folder.resolve(String.format("%s_%04d.%s", e.getKey(), i, f.getKey())));
+                }
+            }
+            if (s.audioBytes >= 0) {
+                files.add(folder.resolve(e.getKey() + "_.wav"));
+            }
+        }
+        if (prefixes == null) {
+            for (String stray : strays) {
+                files.add(folder.resolve(stray));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Writes the index to disk if it has changed since it was last saved.
+     */
+    public synchronized void save() {
+        if (!dirty || !valid || folder == null) {
+            return;
+        }
+        long modified = modifiedTime(folder);
+        // only trust the folder time if the last change to the folder was already seen here
+        long trusted = modified >= 0 && modified <= lastEvent ? modified : -1;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out =
+                     new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(folder.toString());
+                out.writeLong(trusted);
+                out.writeInt(segments.size());
+                for (Map.Entry<String, Segment> e : segments.entrySet()) {
+                    Segment s = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeInt(s.formats.size());
+                    for (Map.Entry<String, Frames> f : s.formats.entrySet()) {
+                        out.writeUTF(f.getKey());
+                        out.writeInt(f.getValue().count);
+                        out.writeLong(f.getValue().bytes);
+                        out.writeInt(f.getValue().last);
+                    }
+                    out.writeLong(s.audioBytes);
+                }
+                out.writeInt(strays.size());
+                for (String stray : strays) {
+                    out.writeUTF(stray);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            folderModified = trusted;
+            dirty = false;
+            lastSave = System.currentTimeMillis();
+        } catch (IOException e) {
+            log.log(Level.INFO, "Could not save movie index", e);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireFrameChanged(String prefix, int frame, Path file, boolean created) {
+        for (Listener listener : listeners) {
+            listener.frameChanged(prefix, frame, file, created);
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called after a frame was created or written to in the movie folder, from the thread that
+         * reported the change and without holding any lock of the index.
+         *
+         * @param prefix  the segment of the frame
+         * @param frame   the frame number
+         * @param file    the frame file
+         * @param created <code>true</code> if the file is new
+         */
+        void frameChanged(String prefix, int frame, Path file, boolean created);
+
+    }
+
+    public static class Segment {
+        private final Map<String, Frames> formats = new TreeMap<>();
+        private long audioBytes = -1;
+
+        private Frames frames(String format) {
+            Frames f = formats.get(format);
+            if (f == null) {
+                f = new Frames();
+                formats.put(format, f);
+            }
+            return f;
+        }
+
+        private Segment copy() {
+            Segment s = new Segment();
+            for (Map.Entry<String, Frames> e : formats.entrySet()) {
+                Frames f = s.frames(e.getKey());
+                f.count = e.getValue().count;
+                f.bytes = e.getValue().bytes;
+                f.last = e.getValue().last;
+            }
+            s.audioBytes = audioBytes;
+            return s;
+        }
+
+        /**
+         * @return the extensions of the frames of this segment
+         */
+        public Set<String> getFormats() {
+            return Collections.unmodifiableSet(formats.keySet());
+        }
+
+        public int getFrames() {
+            int count = 0;
+            for (Frames f : formats.values()) {
+                count += f.count;
+            }
+            return count;
+        }
+
+        /**
+         * @param format the extension of the frames
+         * @return the number of frames in the given format
+         */
+        public int getFrames(String format) {
+            Frames f = formats.get(format);
+            return f == null ? 0 : f.count;
+        }
+
+        public long getBytes() {
+            long bytes = 0;
+            for (Frames f : formats.values()) {
+                bytes += f.bytes;
+            }
+            return bytes;
+        }
+
+        /**
+         * @return the number of the last frame, or -1 if the segment has no frames
+         */
+        public int getLastFrame() {
+            int last = -1;
+            for (Frames f : formats.values()) {
+                last = Math.max(last, f.last);
+            }
+            return last;
+        }
+
+        /**
+         * @return the size of the audio file, or -1 if the segment has no audio
+         */
+        public long getAudioBytes() {
+            return audioBytes;
+        }
+    }
+
+    private static class Frames {
+        private int count = 0;
+        private long bytes = 0;
+        private int last = -1;
+        private int current = -1;
+        private long currentBytes = 0;
+    }
+
+}
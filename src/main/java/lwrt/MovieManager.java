@@ -1,31 +1,174 @@
 package lwrt;
 
 import lwrt.SettingsManager.Key;
+import util.WatchDir;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 class MovieManager {
 
+    private static final Logger log = Logger.getLogger("lawena");
+
     private SettingsManager cfg;
+    private MovieIndex index = new MovieIndex(Paths.get("movies.lwi"));
+    private Thread watcher;
+    private FrameRecompressor recompressor;
+    private SegmentEncoder encoder;
 
     public MovieManager(SettingsManager cfg) {
         this.cfg = cfg;
     }
 
+    /**
+     * Returns the index of the current movie folder, scanning the folder first if the index is not
+     * up to date.
+     *
+     * @return the movie index
+     * @throws IOException if the movie folder could not be scanned
+     */
+    public MovieIndex getIndex() throws IOException {
+        index.reconcile(cfg.getMoviePath());
+        return index;
+    }
+
+    /**
+     * Starts keeping the index current with the contents of the movie folder, replacing the
+     * watcher of the previous movie folder if there was one.
+     */
+    public synchronized void watch() {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        final Path folder = cfg.getMoviePath();
+        watcher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    WatchDir w = new WatchDir(folder, false) {
+                        @Override
+                        protected void dispatch(Runnable event) {
+                            event.run();
+                        }
+
+                        @Override
+                        public void entryCreated(Path child) {
+                            index.fileCreated(child);
+                        }
+
+                        @Override
+                        public void entryModified(Path child) {
+                            index.fileModified(child);
+                        }
+
+                        @Override
+                        public void entryDeleted(Path child) {
+                            index.fileDeleted(child);
+                        }
+                    };
+                    // events are already queued while reconciling, so nothing is missed
+                    index.reconcile(folder);
+                    index.setWatched(true);
+                    w.processEvents();
+                } catch (IOException e) {
+                    log.log(Level.FINE, "Problem while watching movie folder", e);
+                } finally {
+                    synchronized (MovieManager.this) {
+                        if (watcher == Thread.currentThread()) {
+                            index.setWatched(false);
+                        }
+                    }
+                    index.save();
+                }
+            }
+        }, "MovieWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        if (encoder != null) {
+            setEncodeSegments(false);
+            setEncodeSegments(true);
+        }
+    }
+
+    /**
+     * Starts or stops converting recorded TGA frames to PNG as they are written to the movie folder.
+     *
+     * @param enabled <code>true</code> to convert frames
+     */
+    public synchronized void setRecompressFrames(boolean enabled) {
+        if (enabled && recompressor == null) {
+            recompressor = new FrameRecompressor(cfg.getInt(Key.RecompressThreads),
+                cfg.getInt(Key.RecompressMaxMBps));
+            index.addListener(recompressor);
+            recompressor.start();
+        } else if (!enabled && recompressor != null) {
+            index.removeListener(recompressor);
+            recompressor.stop();
+            recompressor = null;
+        }
+    }
+
+    /**
+     * Starts or stops encoding each segment into a video file once it is recorded. The encoder
+     * settings and the movie folder are read when encoding starts.
+     *
+     * @param enabled <code>true</code> to encode segments
+     */
+    public synchronized void setEncodeSegments(boolean enabled) {
+        if (enabled == (encoder != null)) {
+            return;
+        }
+        if (encoder != null) {
+            index.removeListener(encoder);
+            encoder.stop();
+            encoder = null;
+        }
+        if (enabled) {
+            encoder = new SegmentEncoder(cfg, index, cfg.getMoviePath().toAbsolutePath().normalize());
+            index.addListener(encoder);
+            encoder.start();
+        }
+    }
+
+    /**
+     * Tells that the game is no longer recording, so the segments still being written are done.
+     */
+    public synchronized void gameExited() {
+        if (encoder != null) {
+            encoder.gameExited();
+        }
+    }
+
+    public void addIndexListener(MovieIndex.Listener listener) {
+        index.addListener(listener);
+    }
+
+    public void removeIndexListener(MovieIndex.Listener listener) {
+        index.removeListener(listener);
+    }
+
+    /**
+     * Writes pending changes of the movie index to disk.
+     */
+    public void saveIndex() {
+        index.save();
+    }
+
     public void movieOffset() throws IOException {
         String lastmovie = "";
         String alias = "alias namescroll stmov1";
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cfg.getMoviePath(), "*.tga")) {
-            for (Path moviefile : stream) {
-                String filename = moviefile.getFileName().toString();
-                lastmovie = (lastmovie.compareTo(filename) > 0 ? lastmovie : filename);
+        MovieIndex movies = getIndex();
+        for (String prefix : movies.getSegments()) {
+            if (movies.getSegment(prefix).getFrames() > 0) {
+                lastmovie = (lastmovie.compareTo(prefix) > 0 ? lastmovie : prefix);
             }
         }
         if (!lastmovie.equals("")) {
@@ -0,0 +1,174 @@
+package lwrt;
+
+import java.util.logging.Logger;
+
+/**
+ * Follows the TF2 process from a background thread so callers can wait for it to start and exit.
+ * Where the system lets {@link CommandLine#findTF2Pid()} list processes directly, the process is
+ * checked often and cheaply; otherwise the slower {@link CommandLine#isRunningTF2()} is used less
+ * often. A process launched by the tool, when there is one, is also waited on so its exit is seen at
+ * once.
+ */
+class ProcessMonitor {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final long FAST_POLL_MILLIS = 250;
+    private static final long SLOW_POLL_MILLIS = 2000;
+
+    private final CommandLine cl;
+    private final Process launched;
+    private Thread poller;
+    private Thread waiter;
+    private boolean probed = false;
+    private boolean running = false;
+    private boolean woken = false;
+    private long pid = 0;
+    private boolean direct = false;
+
+    /**
+     * @param cl       the platform to look for the process
+     * @param launched the process started to launch the game, or <code>null</code>
+     */
+    public ProcessMonitor(CommandLine cl, Process launched) {
+        this.cl = cl;
+        this.launched = launched;
+    }
+
+    /**
+     * Starts following the process.
+     */
+    public synchronized void start() {
+        if (poller != null) {
+            return;
+        }
+        poller = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                poll();
+            }
+        }, "ProcessMonitor");
+        poller.setDaemon(true);
+        poller.start();
+        if (launched != null) {
+            waiter = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        launched.waitFor();
+                        wake();
+                    } catch (InterruptedException e) {
+                        // monitor stopped
+                    }
+                }
+            }, "ProcessMonitor-launched");
+            waiter.setDaemon(true);
+            waiter.start();
+        }
+    }
+
+    /**
+     * Stops following the process.
+     */
+    public synchronized void stop() {
+        if (poller != null) {
+            poller.interrupt();
+            poller = null;
+        }
+        if (waiter != null) {
+            waiter.interrupt();
+            waiter = null;
+        }
+    }
+
+    private synchronized void wake() {
+        woken = true;
+        notifyAll();
+    }
+
+    private boolean probe() {
+        if (pid > 0) {
+            if (cl.isAlive(pid)) {
+                return true;
+            }
+            pid = 0;
+        }
+        long found = cl.findTF2Pid();
+        direct = found >= 0;
+        if (found >= 0) {
+            pid = found;
+            return found > 0;
+        }
+        return cl.isRunningTF2();
+    }
+
+    private void poll() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean alive = probe();
+                boolean changed;
+                synchronized (this) {
+                    changed = alive != running;
+                    probed = true;
+                    running = alive;
+                    notifyAll();
+                }
+                if (changed) {
+                    log.finer("TF2 process " + (alive ? "started" : "exited") + (pid > 0 ? ": " + pid : ""));
+                }
+                synchronized (this) {
+                    if (!woken) {
+                        wait(direct ? FAST_POLL_MILLIS : SLOW_POLL_MILLIS);
+                    }
+                    woken = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Waits until the process is running.
+     *
+     * @param millis the maximum time to wait, or 0 to wait forever
+     * @return <code>true</code> if the process is running
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitStarted(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (!running) {
+            long left = millis == 0 ? 0 : deadline - System.currentTimeMillis();
+            if (millis > 0 && left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the process is not running.
+     *
+     * @param millis the maximum time to wait, or 0 to wait forever
+     * @return <code>true</code> if the process is not running
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitExited(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (!probed || running) {
+            long left = millis == 0 ? 0 : deadline - System.currentTimeMillis();
+            if (millis > 0 && left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+}
@@ -0,0 +1,357 @@
+package lwrt;
+
+import lwrt.SettingsManager.Key;
+import util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Estimates the disk space and write speed needed to record, using the resolution, framerate and
+ * frame format in the settings. Before launching, the estimate is compared against the free space
+ * of the movie folder and its write throughput, which is measured once per folder with a short
+ * benchmark and kept in the settings for the last few folders used. While recording, a
+ * {@link Monitor} tracks how fast frames are written and warns when the disk is about to run out
+ * of space.
+ */
+class RecordingBudget {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final Logger status = Logger.getLogger("status");
+    private static final long AUDIO_BYTES_PER_SECOND = 44100 * 2 * 2;
+    private static final long BENCHMARK_MILLIS = 3000;
+    private static final int BENCHMARK_MAX_FILES = 64;
+    private static final int MAX_CACHED_FOLDERS = 8;
+    private static final long MB = 1024 * 1024;
+
+    private final SettingsManager cfg;
+
+    public RecordingBudget(SettingsManager cfg) {
+        this.cfg = cfg;
+    }
+
+    private static String size(long bytes) {
+        return Util.humanReadableByteCount(bytes, false);
+    }
+
+    /**
+     * @return the estimated size of a single recorded frame, in bytes
+     */
+    public long frameBytes() {
+        long pixels = (long) cfg.getWidth() * cfg.getHeight();
+        if (cfg.getString(Key.SourceRecorderVideoFormat).equals("jpg")) {
+            double quality = cfg.getInt(Key.SourceRecorderJpegQuality) / 100.0;
+            return (long) (pixels * 3 * (0.04 + 0.2 * quality));
+        }
+        return pixels * 3 + 18;
+    }
+
+    /**
+     * @return the estimated bytes written for each second of recorded footage, including audio
+     */
+    public long bytesPerSecond() {
+        long audio = cfg.getString(Key.SourceRecorderAudioFormat).equals("wav") ? AUDIO_BYTES_PER_SECOND : 0;
+        return frameBytes() * cfg.getFramerate() + audio;
+    }
+
+    /**
+     * @param seconds the length of the footage to record
+     * @return the estimated size of the recording, in bytes
+     */
+    public long estimateBytes(double seconds) {
+        return (long) (seconds * bytesPerSecond());
+    }
+
+    /**
+     * @return the space available to write in the movie folder, in bytes
+     * @throws IOException if the movie folder is not accessible
+     */
+    public long getUsableSpace() throws IOException {
+        return Files.getFileStore(cfg.getMoviePath()).getUsableSpace();
+    }
+
+    /**
+     * Returns the write throughput of the movie folder, measuring it only if it was not measured
+     * before for the current folder.
+     *
+     * @return the throughput in bytes per second
+     * @throws IOException if the benchmark could not write to the movie folder
+     */
+    public long getThroughput() throws IOException {
+        String folder = cfg.getMoviePath().toAbsolutePath().toString();
+        Map<String, Long> cached = loadThroughputs();
+        Long mbps = cached.get(folder);
+        if (mbps != null) {
+            return mbps * MB;
+        }
+        long measured = measureThroughput();
+        cached.put(folder, Math.max(1, measured / MB));
+        Iterator<String> oldest = cached.keySet().iterator();
+        while (cached.size() > MAX_CACHED_FOLDERS) {
+            oldest.next();
+            oldest.remove();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : cached.entrySet()) {
+            sb.append(e.getValue()).append('\t').append(e.getKey()).append('\n');
+        }
+        cfg.setString(Key.MoviePathThroughputs, sb.toString());
+        // the benchmark takes a few seconds, keep its result even if Lawena doesn't close cleanly
+        cfg.save();
+        return measured;
+    }
+
+    /**
+     * @return the throughput in MB/s of each folder measured before, by absolute path, oldest first
+     */
+    private Map<String, Long> loadThroughputs() {
+        Map<String, Long> cached = new LinkedHashMap<>();
+        String value = cfg.getString(Key.MoviePathThroughputs);
+        if (value == null) {
+            return cached;
+        }
+        for (String line : value.split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab > 0) {
+                try {
+                    cached.put(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)));
+                } catch (NumberFormatException e) {
+                    log.fine("Ignoring invalid movie folder throughput: " + line);
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Writes frame sized files to the movie folder for a few seconds, flushing each one to the disk
+     * so the operating system cache doesn't hide the real speed.
+     *
+     * @return the measured throughput in bytes per second
+     * @throws IOException if the files could not be written
+     */
+    public long measureThroughput() throws IOException {
+        int frameBytes = (int) Math.min(frameBytes(), 64 * MB);
+        ByteBuffer data = ByteBuffer.allocate(frameBytes);
+        ThreadLocalRandom.current().nextBytes(data.array());
+        List<Path> written = new ArrayList<>();
+        long bytes = 0;
+        long start = System.nanoTime();
+        try {
+            while (written.size() < BENCHMARK_MAX_FILES
+                && System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(BENCHMARK_MILLIS)) {
+                Path file = cfg.getMoviePath().resolve("lawena-benchmark-" + written.size() + ".tmp");
+                written.add(file);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    data.clear();
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    channel.force(false);
+                }
+                bytes += frameBytes;
+            }
+        } finally {
+            for (Path file : written) {
+                Files.deleteIfExists(file);
+            }
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        long throughput = (long) (bytes * 1e9 / elapsed);
+        log.fine("Movie folder write throughput: " + size(throughput) + "/s");
+        return throughput;
+    }
+
+    /**
+     * Checks whether the movie folder can hold and keep up with a recording.
+     *
+     * @param seconds the length of the footage to record, or 0 if it is not known
+     * @return a description of each problem found, empty if the recording should fit
+     */
+    public List<String> check(double seconds) {
+        List<String> warnings = new ArrayList<>();
+        try {
+            long free = getUsableSpace();
+            if (seconds > 0) {
+                long needed = estimateBytes(seconds);
+                log.fine("Planned recording: " + Math.round(seconds) + " s, about " + size(needed)
+                    + " with " + size(free) + " free");
+                if (needed > free) {
+                    warnings.add("The planned segments need about " + size(needed) + " but only "
+                        + size(free) + " are free in the movie folder.");
+                }
+            }
+            long throughput = getThroughput();
+            long writeRate = frameBytes() * cfg.getInt(Key.RecordingFrameRate);
+            if (throughput < writeRate) {
+                warnings.add("The movie folder can write about " + size(throughput)
+                    + "/s but recording usually writes " + size(writeRate)
+                    + "/s, so the disk will slow down the game.");
+            }
+        } catch (IOException e) {
+            log.fine("Could not check the movie folder: " + e);
+        }
+        return warnings;
+    }
+
+    /**
+     * Starts tracking a recording in progress.
+     *
+     * @param movies the movie manager that reports the frames being written
+     * @return the started monitor
+     */
+    public Monitor startMonitor(MovieManager movies) {
+        Monitor monitor = new Monitor(movies);
+        movies.addIndexListener(monitor);
+        return monitor;
+    }
+
+    /**
+     * Tracks the frames written to the movie folder and its free space while recording.
+     */
+    public class Monitor implements MovieIndex.Listener {
+
+        private static final long SAMPLE_MILLIS = 2000;
+        private static final long WARN_SECONDS_LEFT = 300;
+        private static final double SMOOTHING = 0.3;
+
+        private final MovieManager movies;
+        private final ScheduledExecutorService sampler;
+        private final AtomicInteger frames = new AtomicInteger();
+        private volatile double framesPerSecond = 0;
+        private volatile double bytesPerSecond = 0;
+        private volatile long usableSpace = -1;
+        private long lastSample;
+        private long lastSpace = -1;
+        private int lastFrames = 0;
+        private boolean warned = false;
+        // written by the sampler, read by stop() on the launching thread
+        private volatile double peakFramesPerSecond = 0;
+
+        private Monitor(MovieManager movies) {
+            this.movies = movies;
+            this.lastSample = System.nanoTime();
+            this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "RecordingMonitor");
+                t.setDaemon(true);
+                return t;
+            });
+            sampler.scheduleWithFixedDelay(this::sample, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void frameChanged(String prefix, int frame, Path file, boolean created) {
+            // converted PNG frames are not written by the game
+            if (created && !file.getFileName().toString().endsWith(".png")) {
+                frames.incrementAndGet();
+            }
+        }
+
+        private void sample() {
+            long now = System.nanoTime();
+            double seconds = (now - lastSample) / 1e9;
+            lastSample = now;
+            int count = frames.get();
+            double fps = (count - lastFrames) / seconds;
+            lastFrames = count;
+            framesPerSecond += SMOOTHING * (fps - framesPerSecond);
+            if (fps > 0) {
+                peakFramesPerSecond = Math.max(peakFramesPerSecond, framesPerSecond);
+            }
+            long space;
+            try {
+                space = RecordingBudget.this.getUsableSpace();
+            } catch (IOException e) {
+                return;
+            }
+            if (lastSpace >= 0) {
+                double rate = Math.max(0, (lastSpace - space) / seconds);
+                bytesPerSecond += SMOOTHING * (rate - bytesPerSecond);
+            }
+            lastSpace = space;
+            usableSpace = space;
+            long left = getSecondsLeft();
+            if (left >= 0 && left < WARN_SECONDS_LEFT) {
+                if (!warned) {
+                    warned = true;
+                    log.warning("Movie folder disk will be full in about " + left + " seconds ("
+                        + size(space) + " left)");
+                    status.info("Warning: movie folder disk almost full, " + size(space) + " left");
+                }
+            } else {
+                warned = false;
+            }
+        }
+
+        /**
+         * @return the frames written per second, averaged over the last few seconds
+         */
+        public double getFramesPerSecond() {
+            return framesPerSecond;
+        }
+
+        /**
+         * @return the bytes consumed per second in the movie folder disk
+         */
+        public double getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        /**
+         * @return the free space of the movie folder disk, or -1 if not known yet
+         */
+        public long getUsableSpace() {
+            return usableSpace;
+        }
+
+        /**
+         * @return the frames written since this monitor was started
+         */
+        public int getFrames() {
+            return frames.get();
+        }
+
+        /**
+         * @return the seconds until the disk is full at the current rate, or -1 if no space is
+         * being consumed
+         */
+        public long getSecondsLeft() {
+            double rate = bytesPerSecond;
+            long space = usableSpace;
+            return rate < 1 || space < 0 ? -1 : (long) (space / rate);
+        }
+
+        /**
+         * Stops tracking and remembers how fast frames were recorded for the next launch.
+         */
+        public void stop() {
+            sampler.shutdownNow();
+            movies.removeIndexListener(this);
+            if (peakFramesPerSecond >= 1) {
+                int previous = cfg.getInt(Key.RecordingFrameRate);
+                int value = (int) Math.round(previous + SMOOTHING * (peakFramesPerSecond - previous));
+                cfg.setInt(Key.RecordingFrameRate, Math.max(1, value));
+                log.fine("Recording frame rate: " + Math.round(peakFramesPerSecond) + " fps, expected "
+                    + previous + " -> " + value);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+package lwrt;
+
+import javax.management.*;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Live statistics of the frames the game writes to the movie folder, fed by the frame events of the
+ * movie index. Rates are averaged over the last few seconds, and recording is flagged as stalled
+ * when no frame arrives for a configurable time, for example when the game hangs on a loading
+ * screen during an unattended render.
+ * <p>
+ * The statistics are available through JMX while started, see {@link RecordingTelemetryMXBean}.
+ */
+class RecordingTelemetry extends NotificationBroadcasterSupport
+    implements MovieIndex.Listener, RecordingTelemetryMXBean {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final Logger status = Logger.getLogger("status");
+    private static final String OBJECT_NAME = "lawena:type=RecordingTelemetry";
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long CHECK_MILLIS = 1000;
+
+    private final MovieManager movies;
+    private final Deque<long[]> window = new ArrayDeque<>();
+    private volatile int stallSeconds;
+    private ScheduledExecutorService checker;
+    private String segment = "";
+    private Path previous;
+    private long lastFrame = -1;
+    private long frames = 0;
+    private long bytes = 0;
+    private long windowBytes = 0;
+    private boolean stalled = false;
+    private int stallCount = 0;
+    private long sequence = 0;
+
+    /**
+     * @param movies       the movie manager reporting the frames
+     * @param stallSeconds the time without new frames after which recording is considered stalled
+     */
+    public RecordingTelemetry(MovieManager movies, int stallSeconds) {
+        this.movies = movies;
+        this.stallSeconds = stallSeconds;
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            // already converted or deleted
+            return 0;
+        }
+    }
+
+    /**
+     * Starts collecting statistics and registers the MBean.
+     */
+    public synchronized void start() {
+        if (checker != null) {
+            return;
+        }
+        window.clear();
+        segment = "";
+        previous = null;
+        lastFrame = -1;
+        frames = bytes = windowBytes = 0;
+        stalled = false;
+        stallCount = 0;
+        movies.addIndexListener(this);
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "RecordingTelemetry");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::check, CHECK_MILLIS, CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            log.log(Level.FINE, "Could not register recording telemetry MBean", e);
+        }
+    }
+
+    /**
+     * Stops collecting statistics and unregisters the MBean.
+     */
+    public synchronized void stop() {
+        if (checker == null) {
+            return;
+        }
+        movies.removeIndexListener(this);
+        checker.shutdownNow();
+        checker = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            log.log(Level.FINE, "Could not unregister recording telemetry MBean", e);
+        }
+        if (frames > 0) {
+            log.fine("Recording telemetry: " + frames + " frames, " + (bytes >> 20) + " MB, "
+                + stallCount + " stalls");
+        }
+    }
+
+    @Override
+    public void frameChanged(String prefix, int frame, Path file, boolean created) {
+        // converted PNG frames are not written by the game
+        if (!created || file.getFileName().toString().endsWith(".png")) {
+            return;
+        }
+        // the previous frame is complete once the next one is created
+        long size = previous != null ? size(previous) : 0;
+        synchronized (this) {
+            long now = System.nanoTime();
+            previous = file;
+            segment = prefix;
+            lastFrame = now;
+            frames++;
+            bytes += size;
+            windowBytes += size;
+            window.addLast(new long[]{now, size});
+            prune(now);
+        }
+    }
+
+    private void prune(long now) {
+        while (!window.isEmpty() && now - window.peekFirst()[0] > WINDOW_NANOS) {
+            windowBytes -= window.removeFirst()[1];
+        }
+    }
+
+    private void check() {
+        boolean changed;
+        boolean now;
+        synchronized (this) {
+            now = lastFrame >= 0 && getSecondsSinceLastFrame() > stallSeconds;
+            changed = now != stalled;
+            stalled = now;
+            if (changed && now) {
+                stallCount++;
+            }
+        }
+        if (changed) {
+            if (now) {
+                log.warning("No frames recorded for " + stallSeconds + " seconds in segment " + segment
+                    + ", the game might be stalled");
+                status.info("Recording stalled: no frames for " + stallSeconds + " seconds");
+            } else {
+                log.info("Recording resumed in segment " + segment);
+            }
+            sendNotification(new AttributeChangeNotification(this, ++sequence, System.currentTimeMillis(),
+                now ? "Recording stalled" : "Recording resumed", "Stalled", "boolean", !now, now));
+        }
+    }
+
+    @Override
+    public MBeanNotificationInfo[] getNotificationInfo() {
+        return new MBeanNotificationInfo[]{new MBeanNotificationInfo(
+            new String[]{AttributeChangeNotification.ATTRIBUTE_CHANGE},
+            AttributeChangeNotification.class.getName(), "Sent when recording stalls or resumes")};
+    }
+
+    @Override
+    public synchronized double getFramesPerSecond() {
+        prune(System.nanoTime());
+        return window.size() / (WINDOW_NANOS / 1e9);
+    }
+
+    @Override
+    public synchronized double getBytesPerSecond() {
+        prune(System.nanoTime());
+        return windowBytes / (WINDOW_NANOS / 1e9);
+    }
+
+    @Override
+    public synchronized String getCurrentSegment() {
+        return segment;
+    }
+
+    @Override
+    public synchronized double getSecondsSinceLastFrame() {
+        return lastFrame < 0 ? -1 : (System.nanoTime() - lastFrame) / 1e9;
+    }
+
+    @Override
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized boolean isStalled() {
+        return stalled;
+    }
+
+    @Override
+    public synchronized int getStallCount() {
+        return stallCount;
+    }
+
+    @Override
+    public int getStallSeconds() {
+        return stallSeconds;
+    }
+
+    @Override
+    public void setStallSeconds(int seconds) {
+        stallSeconds = Math.max(1, seconds);
+    }
+
+    /**
+     * @return a short description of the current state for the status bar
+     */
+    public synchronized String summary() {
+        if (lastFrame < 0) {
+            return "Waiting for frames";
+        }
+        if (stalled) {
+            return segment + ": stalled for " + Math.round(getSecondsSinceLastFrame()) + " s";
+        }
+        return String.format("%s: %.1f fps, %.1f MB/s, %d frames", segment, getFramesPerSecond(),
+            getBytesPerSecond() / (1024 * 1024), frames);
+    }
+
+}
@@ -0,0 +1,57 @@
+package lwrt;
+
+/**
+ * Management interface of {@link RecordingTelemetry}, registered as
+ * <code>lawena:type=RecordingTelemetry</code>. A notification is sent whenever the
+ * <code>Stalled</code> attribute changes.
+ */
+public interface RecordingTelemetryMXBean {
+
+    /**
+     * @return the frames written per second over the last few seconds
+     */
+    double getFramesPerSecond();
+
+    /**
+     * @return the bytes written per second over the last few seconds
+     */
+    double getBytesPerSecond();
+
+    /**
+     * @return the prefix of the segment being recorded, or an empty string if none
+     */
+    String getCurrentSegment();
+
+    /**
+     * @return the seconds since the last frame was written, or -1 if no frame was written yet
+     */
+    double getSecondsSinceLastFrame();
+
+    /**
+     * @return the frames written since recording started
+     */
+    long getFrames();
+
+    /**
+     * @return the bytes written since recording started
+     */
+    long getBytes();
+
+    /**
+     * @return <code>true</code> if no frame was written for longer than the stall threshold
+     */
+    boolean isStalled();
+
+    /**
+     * @return the number of stalls detected since recording started
+     */
+    int getStallCount();
+
+    int getStallSeconds();
+
+    /**
+     * @param seconds the time without new frames after which recording is considered stalled
+     */
+    void setStallSeconds(int seconds);
+
+}
@@ -0,0 +1,342 @@
+package lwrt;
+
+import lwrt.SettingsManager.Key;
+import util.TgaReader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Encodes each recorded segment into a video file as soon as the game stops recording it. Frames
+ * are decoded in order and piped as raw video to an external encoder such as ffmpeg, together with
+ * the audio of the segment, so the frames don't need to be handed to another tool afterwards.
+ * <p>
+ * The game gives no signal when a segment ends, so a segment is considered finished when frames of
+ * a different segment start to appear, or when the game exits. A pause in recording, like the game
+ * losing focus or loading, is not the end of a segment: if frames past the ones being encoded still
+ * arrive, the encode is cancelled and the segment is encoded again once it is finished. Several
+ * segments can be encoded at the same time, and each encode keeps a small number of decoded frames
+ * ahead of the encoder.
+ */
+class SegmentEncoder implements MovieIndex.Listener {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    // lets the movie folder watcher report the last frames written before the game exited
+    private static final long EXIT_SETTLE_MILLIS = 2000;
+    private static final int READ_AHEAD = 8;
+    private static final byte[] END = new byte[0];
+    private static final String[] FORMATS = {"tga", "png", "jpg"};
+
+    private final MovieIndex index;
+    private final Path folder;
+    private final String encoder;
+    private final List<String> outputArgs;
+    private final String extension;
+    private final int framerate;
+    private final int jobs;
+    private final Set<String> recording = new HashSet<>();
+    // the last frame of each segment sent to be encoded
+    private final Map<String, Integer> queued = new HashMap<>();
+    private final Map<String, Future<?>> encodes = new HashMap<>();
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param cfg    the settings with the encoder configuration
+     * @param index  the index of the movie folder
+     * @param folder the movie folder
+     */
+    public SegmentEncoder(SettingsManager cfg, MovieIndex index, Path folder) {
+        this.index = index;
+        this.folder = folder;
+        this.encoder = cfg.getString(Key.EncoderPath);
+        String args = cfg.getString(Key.EncoderOutputArgs).trim();
+        this.outputArgs = args.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(args.split("\\s+"));
+        this.extension = cfg.getString(Key.EncoderOutputExtension);
+        this.framerate = cfg.getFramerate();
+        int max = cfg.getInt(Key.EncoderMaxJobs);
+        this.jobs = max > 0 ? max : Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    }
+
+    private static void toBgr(BufferedImage image, byte[] out) {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        int i = 0;
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int p = row[x];
+                out[i++] = (byte) p;
+                out[i++] = (byte) (p >> 8);
+                out[i++] = (byte) (p >> 16);
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(jobs, r -> {
+            Thread t = new Thread(r, "SegmentEncoder");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SegmentEncoderExit");
+            t.setDaemon(true);
+            return t;
+        });
+        log.fine("Encoding finished segments with " + encoder + ", up to " + jobs + " at a time");
+    }
+
+    /**
+     * Stops encoding. Running encodes are aborted and their encoder processes destroyed.
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        executor = null;
+        scheduler = null;
+        synchronized (recording) {
+            recording.clear();
+            queued.clear();
+            encodes.clear();
+        }
+    }
+
+    @Override
+    public void frameChanged(String prefix, int frame, Path file, boolean created) {
+        // converted PNG frames are not written by the game and say nothing about recording
+        if (file.getFileName().toString().endsWith(".png")) {
+            return;
+        }
+        List<String> finished = new ArrayList<>();
+        synchronized (recording) {
+            Integer last = queued.get(prefix);
+            if (last != null) {
+                // the segment is being recorded again, or its recording was only paused
+                if (!(created && frame == 0) && frame <= last) {
+                    return;
+                }
+                queued.remove(prefix);
+                Future<?> encode = encodes.remove(prefix);
+                if (encode != null) {
+                    encode.cancel(true);
+                }
+                log.fine("Segment " + prefix + " is still being recorded, encoding it again later");
+            }
+            if (!recording.contains(prefix)) {
+                // the game records one segment at a time, so the others are done
+                finished.addAll(recording);
+            }
+            recording.add(prefix);
+        }
+        for (String done : finished) {
+            submit(done);
+        }
+    }
+
+    /**
+     * Encodes the segments being recorded, once the frames the game wrote before exiting have been
+     * seen.
+     */
+    public synchronized void gameExited() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            List<String> finished;
+            synchronized (recording) {
+                finished = new ArrayList<>(recording);
+            }
+            for (String done : finished) {
+                submit(done);
+            }
+        }, EXIT_SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void submit(final String prefix) {
+        ExecutorService e;
+        synchronized (this) {
+            e = executor;
+        }
+        if (e == null) {
+            return;
+        }
+        synchronized (recording) {
+            if (!recording.remove(prefix) || queued.containsKey(prefix)) {
+                return;
+            }
+            MovieIndex.Segment segment = index.getSegment(prefix);
+            if (segment == null || segment.getFrames() == 0) {
+                return;
+            }
+            final int last = segment.getLastFrame();
+            queued.put(prefix, last);
+            encodes.put(prefix, e.submit(() -> {
+                try {
+                    encode(prefix, last);
+                } catch (InterruptedException ex) {
+                    log.fine("Encoding of segment " + prefix + " was cancelled");
+                } catch (IOException ex) {
+                    log.log(Level.INFO, "Could not encode segment " + prefix, ex);
+                }
+            }));
+        }
+    }
+
+    /**
+     * @return the frame, or <code>null</code> if it is missing or unreadable, like the truncated
+     * last frame left when the game crashes
+     */
+    private BufferedImage readFrame(String prefix, int frame) {
+        // frames can move from TGA to PNG while being read when they are also being recompressed
+        for (int attempt = 0; attempt < 2; attempt++) {
+            for (String format : FORMATS) {
+                Path path = folder.resolve(String.format("%s_%04d.%s", prefix, frame, format));
+                try {
+                    BufferedImage image = format.equals("tga") ? TgaReader.read(path) : ImageIO.read(path.toFile());
+                    if (image != null) {
+                        return image;
+                    }
+                } catch (NoSuchFileException e) {
+                    // try the next format
+                } catch (IOException | RuntimeException e) {
+                    if (Files.exists(path)) {
+                        log.finer("Could not read frame " + path + ": " + e);
+                        return null;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encodes a segment, blocking until the encoder exits.
+     *
+     * @param prefix the segment to encode
+     * @param last   the last frame to encode
+     * @return the encoded video file
+     * @throws IOException          if the frames could not be read or the encoder failed
+     * @throws InterruptedException if the encode was cancelled
+     */
+    public Path encode(final String prefix, final int last) throws IOException, InterruptedException {
+        BufferedImage first = null;
+        int firstFrame = 0;
+        for (; first == null && firstFrame <= last; firstFrame++) {
+            first = readFrame(prefix, firstFrame);
+        }
+        if (first == null) {
+            throw new IOException("Segment has no readable frames");
+        }
+        final int width = first.getWidth();
+        final int height = first.getHeight();
+        final int frameBytes = width * height * 3;
+
+        Path outputDir = folder.resolve("encoded");
+        Files.createDirectories(outputDir);
+        Path output = outputDir.resolve(prefix + "." + extension);
+        Path wav = folder.resolve(prefix + "_.wav");
+        List<String> command = new ArrayList<>(Arrays.asList(encoder, "-hide_banner", "-y",
+            "-f", "rawvideo", "-pix_fmt", "bgr24", "-s", width + "x" + height,
+            "-framerate", Integer.toString(framerate), "-i", "-"));
+        if (Files.exists(wav)) {
+            command.addAll(Arrays.asList("-i", wav.toString()));
+        }
+        command.addAll(outputArgs);
+        command.add(output.toString());
+        log.fine("Encoding segment " + prefix + " (" + (last + 1) + " frames): " + command);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(outputDir.resolve(prefix + ".log").toFile());
+        long start = System.currentTimeMillis();
+        Process process = builder.start();
+
+        // decode frames on a separate thread so reading and encoding overlap
+        final BlockingQueue<byte[]> buffer = new ArrayBlockingQueue<>(READ_AHEAD);
+        final BufferedImage firstImage = first;
+        final int from = firstFrame - 1;
+        FutureTask<Integer> reader = new FutureTask<>(() -> {
+            int missing = 0;
+            byte[] previous = new byte[frameBytes];
+            toBgr(firstImage, previous);
+            boolean complete = false;
+            try {
+                buffer.put(previous);
+                for (int i = from + 1; i <= last; i++) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException("Encode cancelled");
+                    }
+                    BufferedImage image = readFrame(prefix, i);
+                    if (image != null && image.getWidth() == width && image.getHeight() == height) {
+                        byte[] data = new byte[frameBytes];
+                        toBgr(image, data);
+                        previous = data;
+                    } else {
+                        // repeat the previous frame to keep the video in sync with the audio
+                        missing++;
+                    }
+                    buffer.put(previous);
+                }
+                complete = true;
+            } finally {
+                if (complete) {
+                    buffer.put(END);
+                } else {
+                    // the encoder may have stopped draining, make room so this never blocks
+                    buffer.clear();
+                    buffer.offer(END);
+                }
+            }
+            return missing;
+        });
+        Thread readerThread = new Thread(reader, "SegmentEncoderReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        int exit;
+        try {
+            try (OutputStream out = new BufferedOutputStream(process.getOutputStream(), 1 << 20)) {
+                byte[] data;
+                while ((data = buffer.take()) != END) {
+                    out.write(data);
+                }
+            }
+            int missing = reader.get();
+            if (missing > 0) {
+                log.info("Segment " + prefix + " had " + missing + " missing or unreadable frames");
+            }
+            exit = process.waitFor();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                : new IOException(e.getCause());
+        } catch (InterruptedException | IOException e) {
+            reader.cancel(true);
+            process.destroy();
+            throw e;
+        }
+        if (exit != 0) {
+            throw new IOException("Encoder exited with code " + exit + ", see " + outputDir.resolve(prefix + ".log"));
+        }
+        log.info("Segment " + prefix + " encoded to " + output + " in "
+            + (System.currentTimeMillis() - start) / 1000 + " s");
+        return output;
+    }
+
+}
@@ -508,8 +508,32 @@ public class SettingsManager {
         VdmSkipMode("SKIP_AHEAD"),
         VdmSkipStartCommand("demo_timescale 5"),
         VdmSkipStopCommand("demo_timescale 1"),
+        VdmSkipAheadMillis(4000, 0, Integer.MAX_VALUE),
+        VdmTimescaleEfficiency(100, 1, 100),
         VdmTickPadding(500, 0, Integer.MAX_VALUE),
+        VdmImportTicksBefore(500, 0, Integer.MAX_VALUE),
+        VdmImportTicksAfter(200, 1, Integer.MAX_VALUE),
+        VdmCoalesceSegments(false),
+        VdmCoalesceGap(500, 0, Integer.MAX_VALUE),
+        DemoScanThreads(4, 1, 64),
+        ClearMoviesThreads(4, 1, 64),
+        CopyThreads(4, 1, 64),
+        BackupThreads(0, 0, 64),
+        BackupSnapshots(10, 1, Integer.MAX_VALUE),
+        ContactSheetFrames(12, 1, 64),
+        RecompressFrames(false),
+        RecompressThreads(0, 0, 64),
+        RecompressMaxMBps(200, 0, Integer.MAX_VALUE),
+        EncodeSegments(false),
+        EncoderPath("ffmpeg"),
+        EncoderOutputArgs("-c:v libx264 -preset veryfast -crf 18 -pix_fmt yuv420p -c:a aac -b:a 192k"),
+        EncoderOutputExtension("mp4"),
+        EncoderMaxJobs(0, 0, 64),
+        MoviePathThroughputs(""),
+        RecordingFrameRate(30, 1, Integer.MAX_VALUE),
+        RecordingStallSeconds(30, 1, Integer.MAX_VALUE),
         InstallFonts(true),
+        InstallMode("auto", "auto", "copy", "link"),
         CopyUserConfig(true),
         CustomSettings("// Custom User Settings"),
         CustomSettingsDialogWidth(300, 200, Integer.MAX_VALUE),
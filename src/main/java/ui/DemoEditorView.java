@@ -32,8 +32,12 @@ public class DemoEditorView extends JPanel {
     private JTextArea txtrDemodetails;
     private JCheckBox chckbxSrcDemoFix;
     private JButton btnAddExecRecord;
+    private JButton btnImportEvents;
     private JLabel lblSkipMode;
     private JComboBox<SkipMode> cmbSkipMode;
+    private JCheckBox chckbxCoalesce;
+    private JButton btnScanDemos;
+    private JProgressBar progressScan;
 
     /**
      * Create the panel.
@@ -149,6 +153,10 @@ public class DemoEditorView extends JPanel {
         btnDeleteSelectedTick = new JButton("Delete Selected");
         panelButtonsRight.add(btnDeleteSelectedTick);
 
+        btnImportEvents = new JButton("Import Events...");
+        btnImportEvents.setToolTipText("Add a segment for each bookmark and killstreak in an events file or demo");
+        panelButtonsRight.add(btnImportEvents);
+
         btnClearTickList = new JButton("Clear");
         panelButtonsRight.add(btnClearTickList);
 
@@ -187,6 +195,19 @@ public class DemoEditorView extends JPanel {
         cmbSkipMode.setModel(new DefaultComboBoxModel<>(SkipMode.values()));
         panelButtonsLeft.add(cmbSkipMode);
 
+        chckbxCoalesce = new JCheckBox("Merge nearby segments");
+        chckbxCoalesce.setToolTipText("Merge segments of the same demo that overlap or are too close to skip between them");
+        panelButtonsLeft.add(chckbxCoalesce);
+
+        btnScanDemos = new JButton("Scan Demos");
+        btnScanDemos.setToolTipText("Read the details of every demo in your TF2 and demo folders");
+        panelButtonsLeft.add(btnScanDemos);
+
+        progressScan = new JProgressBar();
+        progressScan.setStringPainted(true);
+        progressScan.setVisible(false);
+        panelButtonsLeft.add(progressScan);
+
     }
 
     public JComboBox<SkipMode> getCmbSkipMode() {
@@ -245,4 +266,20 @@ public class DemoEditorView extends JPanel {
         return btnAddExecRecord;
     }
 
+    public JButton getBtnImportEvents() {
+        return btnImportEvents;
+    }
+
+    public JCheckBox getChckbxCoalesce() {
+        return chckbxCoalesce;
+    }
+
+    public JButton getBtnScanDemos() {
+        return btnScanDemos;
+    }
+
+    public JProgressBar getProgressScan() {
+        return progressScan;
+    }
+
 }
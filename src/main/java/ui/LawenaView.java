@@ -44,6 +44,7 @@ public class LawenaView extends JFrame {
     private JButton btnClearMovieFolder;
     private JTextArea textAreaLog;
     private JLabel lblStatus;
+    private JLabel lblTelemetry;
     private JComboBox<String> cmbViewmodel;
     private JLabel lblPreview;
     private JProgressBar progressBar;
@@ -65,6 +66,7 @@ public class LawenaView extends JFrame {
     private JMenuItem mntmSelectEnhancedParticles;
     private JMenuItem mntmAddCustomSettings;
     private JMenuItem mntmOpenMovieFolder;
+    private JMenuItem mntmVerifyMovieFiles;
     private JMenuItem mntmOpenCustomFolder;
     private JMenuItem mntmChangeTfLaunch;
     private JMenuItem mntmRevertToDefault;
@@ -78,6 +80,8 @@ public class LawenaView extends JFrame {
     private JRadioButtonMenuItem hlaeLaunch;
     private JMenuItem selectHlaeLocation;
     private JCheckBoxMenuItem copyUserConfig;
+    private JCheckBoxMenuItem recompressFrames;
+    private JCheckBoxMenuItem encodeSegments;
     /**
      * Create the frame.
      */
@@ -103,6 +107,9 @@ public class LawenaView extends JFrame {
         JMenuItem mntmOpenMovieFolder = new JMenuItem("Open Movie Folder");
         mnFile.add(mntmOpenMovieFolder);
 
+        JMenuItem mntmVerifyMovieFiles = new JMenuItem("Verify Movie Files");
+        mnFile.add(mntmVerifyMovieFiles);
+
         JMenuItem mntmOpenCustomFolder = new JMenuItem("Open Custom Folder");
         mnFile.add(mntmOpenCustomFolder);
 
@@ -171,6 +178,14 @@ public class LawenaView extends JFrame {
             new JCheckBoxMenuItem("Copy my Configs to Lawena (fixes crashes)");
         mnAdvanced.add(copyUserConfig);
 
+        JCheckBoxMenuItem recompressFrames =
+            new JCheckBoxMenuItem("Compress TGA Frames to PNG while Recording");
+        mnAdvanced.add(recompressFrames);
+
+        JCheckBoxMenuItem encodeSegments =
+            new JCheckBoxMenuItem("Encode Segments to Video after Recording");
+        mnAdvanced.add(encodeSegments);
+
         JSeparator separator_5 = new JSeparator();
         mnAdvanced.add(separator_5);
 
@@ -601,6 +616,14 @@ public class LawenaView extends JFrame {
         gbc_lblStatus.gridy = 0;
         panelStatusbar.add(lblStatus, gbc_lblStatus);
 
+        JLabel lblTelemetry = new JLabel("");
+        GridBagConstraints gbc_lblTelemetry = new GridBagConstraints();
+        gbc_lblTelemetry.insets = new Insets(0, 5, 0, 5);
+        gbc_lblTelemetry.anchor = GridBagConstraints.EAST;
+        gbc_lblTelemetry.gridx = 1;
+        gbc_lblTelemetry.gridy = 0;
+        panelStatusbar.add(lblTelemetry, gbc_lblTelemetry);
+
         JProgressBar progressBar = new JProgressBar();
         GridBagConstraints gbc_progressBar = new GridBagConstraints();
         gbc_progressBar.anchor = GridBagConstraints.EAST;
@@ -628,6 +651,7 @@ public class LawenaView extends JFrame {
         this.mntmChangeTfDirectory = mntmChangeTfDirectory;
         this.mntmChangeMovieDirectory = mntmChangeMovieDirectory;
         this.lblStatus = lblStatus;
+        this.lblTelemetry = lblTelemetry;
         this.cmbViewmodel = cmbViewmodel;
         this.lblPreview = lblPreview;
         this.progressBar = progressBar;
@@ -639,6 +663,7 @@ public class LawenaView extends JFrame {
         this.mntmSelectEnhancedParticles = mntmSelectEnhancedParticles;
         this.mntmAddCustomSettings = mntmAddCustomSettings;
         this.mntmOpenMovieFolder = mntmOpenMovieFolder;
+        this.mntmVerifyMovieFiles = mntmVerifyMovieFiles;
         this.mntmOpenCustomFolder = mntmOpenCustomFolder;
         this.mntmChangeTfLaunch = mntmChangeTfLaunch;
         this.launchMode = mnLaunchMode;
@@ -665,6 +690,8 @@ public class LawenaView extends JFrame {
         this.customLaunchOptionsMenuItem = customLaunchOptionsMenuItem;
         this.installFonts = installFonts;
         this.copyUserConfig = copyUserConfig;
+        this.recompressFrames = recompressFrames;
+        this.encodeSegments = encodeSegments;
 
         pack();
         setMinimumSize(new Dimension(750, 420));
@@ -763,6 +790,10 @@ public class LawenaView extends JFrame {
         return lblStatus;
     }
 
+    public JLabel getLblTelemetry() {
+        return lblTelemetry;
+    }
+
     public JComboBox<String> getCmbViewmodel() {
         return cmbViewmodel;
     }
@@ -807,6 +838,10 @@ public class LawenaView extends JFrame {
         return mntmOpenMovieFolder;
     }
 
+    public JMenuItem getMntmVerifyMovieFiles() {
+        return mntmVerifyMovieFiles;
+    }
+
     public JMenuItem getMntmOpenCustomFolder() {
         return mntmOpenCustomFolder;
     }
@@ -851,6 +886,14 @@ public class LawenaView extends JFrame {
         return copyUserConfig;
     }
 
+    public JCheckBoxMenuItem getRecompressFrames() {
+        return recompressFrames;
+    }
+
+    public JCheckBoxMenuItem getEncodeSegments() {
+        return encodeSegments;
+    }
+
     public JRadioButtonMenuItem getSourceLaunch() {
         return sourceLaunch;
     }
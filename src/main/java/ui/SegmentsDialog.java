@@ -11,6 +11,7 @@ public class SegmentsDialog extends JDialog {
     private static final long serialVersionUID = 1L;
     private final JPanel contentPanel = new JPanel();
     private JTable tableSegments;
+    private JLabel lblPreview;
     private JButton okButton;
     private JButton cancelButton;
 
@@ -20,7 +21,7 @@ public class SegmentsDialog extends JDialog {
     public SegmentsDialog() {
         setTitle("Select Segments to Delete");
         setModalityType(ModalityType.APPLICATION_MODAL);
-        setBounds(100, 100, 450, 300);
+        setBounds(100, 100, 800, 450);
         try {
             setIconImage(new ImageIcon(getClass().getClassLoader().getResource("ui/tf2.png")).getImage());
         } catch (Exception e) {
@@ -30,9 +31,9 @@ public class SegmentsDialog extends JDialog {
         contentPanel.setBorder(new EmptyBorder(5, 5, 5, 5));
         getContentPane().add(contentPanel, BorderLayout.CENTER);
         GridBagLayout gbl_contentPanel = new GridBagLayout();
-        gbl_contentPanel.columnWidths = new int[]{0, 0};
+        gbl_contentPanel.columnWidths = new int[]{200, 0, 0};
         gbl_contentPanel.rowHeights = new int[]{0, 0, 0};
-        gbl_contentPanel.columnWeights = new double[]{1.0, Double.MIN_VALUE};
+        gbl_contentPanel.columnWeights = new double[]{0.0, 1.0, Double.MIN_VALUE};
         gbl_contentPanel.rowWeights = new double[]{0.0, 1.0, Double.MIN_VALUE};
         contentPanel.setLayout(gbl_contentPanel);
         {
@@ -40,6 +41,7 @@ public class SegmentsDialog extends JDialog {
                 new JLabel("Select what recording segments will be deleted from your movie folder.");
             GridBagConstraints gbc_lblSelectWhatEnhanced = new GridBagConstraints();
             gbc_lblSelectWhatEnhanced.anchor = GridBagConstraints.WEST;
+            gbc_lblSelectWhatEnhanced.gridwidth = 2;
             gbc_lblSelectWhatEnhanced.insets = new Insets(0, 0, 5, 0);
             gbc_lblSelectWhatEnhanced.gridx = 0;
             gbc_lblSelectWhatEnhanced.gridy = 0;
@@ -49,6 +51,7 @@ public class SegmentsDialog extends JDialog {
             JScrollPane scrollPane = new JScrollPane();
             GridBagConstraints gbc_scrollPane = new GridBagConstraints();
             gbc_scrollPane.fill = GridBagConstraints.BOTH;
+            gbc_scrollPane.insets = new Insets(0, 0, 0, 5);
             gbc_scrollPane.gridx = 0;
             gbc_scrollPane.gridy = 1;
             contentPanel.add(scrollPane, gbc_scrollPane);
@@ -62,6 +65,20 @@ public class SegmentsDialog extends JDialog {
                 scrollPane.setViewportView(tableSegments);
             }
         }
+        {
+            JScrollPane scrollPanePreview = new JScrollPane();
+            GridBagConstraints gbc_scrollPanePreview = new GridBagConstraints();
+            gbc_scrollPanePreview.fill = GridBagConstraints.BOTH;
+            gbc_scrollPanePreview.gridx = 1;
+            gbc_scrollPanePreview.gridy = 1;
+            contentPanel.add(scrollPanePreview, gbc_scrollPanePreview);
+            {
+                lblPreview = new JLabel("Select a segment to preview it");
+                lblPreview.setHorizontalAlignment(SwingConstants.CENTER);
+                lblPreview.setVerticalAlignment(SwingConstants.TOP);
+                scrollPanePreview.setViewportView(lblPreview);
+            }
+        }
         {
             JPanel buttonPane = new JPanel();
             getContentPane().add(buttonPane, BorderLayout.SOUTH);
@@ -120,6 +137,10 @@ public class SegmentsDialog extends JDialog {
         return tableSegments;
     }
 
+    public JLabel getLblPreview() {
+        return lblPreview;
+    }
+
     public JButton getOkButton() {
         return okButton;
     }
@@ -0,0 +1,193 @@
+package util;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Deletes large numbers of files using a small pool of threads. Workers claim the files in batches
+ * from a shared list, so each thread keeps the filesystem busy without any per-file coordination,
+ * and progress is reported from the calling thread at a fixed interval instead of once per file.
+ * <p>
+ * A deletion is cancelled by interrupting the thread that called
+ * {@link #delete(List, ProgressListener)}; workers stop after the file they are deleting.
+ */
+public class BulkDeleter {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final int BATCH_SIZE = 64;
+    private static final long PROGRESS_INTERVAL_MILLIS = 100;
+
+    private final int threads;
+
+    /**
+     * @param threads the maximum number of files deleted at the same time
+     */
+    public BulkDeleter(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    private static boolean deleteFile(Path path) throws IOException {
+        try {
+            Files.delete(path);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (AccessDeniedException e) {
+            // read-only files can't be deleted on Windows
+            if (!path.toFile().setWritable(true)) {
+                throw e;
+            }
+            Files.delete(path);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the given files, blocking until all of them were processed or the deletion is
+     * cancelled. Files that do not exist are skipped.
+     *
+     * @param files    the files to delete
+     * @param listener notified from the calling thread at most every 100 ms, can be
+     *                 <code>null</code>
+     * @return the result of this deletion
+     * @throws InterruptedException if the deletion was cancelled
+     */
+    public Result delete(final List<Path> files, ProgressListener listener)
+        throws InterruptedException {
+        final Result result = new Result();
+        result.total = files.size();
+        if (files.isEmpty()) {
+            return result;
+        }
+        final long start = System.nanoTime();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger deleted = new AtomicInteger();
+        final AtomicInteger missing = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        int workers = Math.min(threads, (files.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+        final CountDownLatch finished = new CountDownLatch(workers);
+        ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "BulkDeleter");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int w = 0; w < workers; w++) {
+            executor.execute(() -> {
+                try {
+                    int from;
+                    while ((from = next.getAndAdd(BATCH_SIZE)) < files.size()) {
+                        int to = Math.min(from + BATCH_SIZE, files.size());
+                        for (int i = from; i < to; i++) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                return;
+                            }
+                            Path path = files.get(i);
+                            try {
+                                if (deleteFile(path)) {
+                                    deleted.incrementAndGet();
+                                } else {
+                                    missing.incrementAndGet();
+                                }
+                            } catch (IOException e) {
+                                failed.incrementAndGet();
+                                log.finer("Could not delete " + path + ": " + e);
+                            }
+                        }
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+        executor.shutdown();
+
+        try {
+            while (!finished.await(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (listener != null) {
+                    int done = deleted.get() + missing.get() + failed.get();
+                    listener.progress(done, result.total, rate(deleted.get(), start));
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            log.fine("Deletion cancelled after " + deleted.get() + " of " + result.total + " files");
+            throw e;
+        }
+        result.deleted = deleted.get();
+        result.missing = missing.get();
+        result.failed = failed.get();
+        result.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        result.filesPerSecond = rate(result.deleted, start);
+        if (listener != null) {
+            listener.progress(result.total, result.total, result.filesPerSecond);
+        }
+        return result;
+    }
+
+    private static double rate(int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        return elapsed > 0 ? count * 1e9 / elapsed : 0;
+    }
+
+    public interface ProgressListener {
+
+        /**
+         * @param processed      the number of files processed so far, deleted or not
+         * @param total          the total number of files
+         * @param filesPerSecond the number of files deleted per second so far
+         */
+        void progress(int processed, int total, double filesPerSecond);
+
+    }
+
+    public static class Result {
+
+        private int total;
+        private int deleted;
+        private int missing;
+        private int failed;
+        private long millis;
+        private double filesPerSecond;
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return the number of files that did not exist
+         */
+        public int getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return the number of files that could not be deleted
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public double getFilesPerSecond() {
+            return filesPerSecond;
+        }
+
+    }
+
+}
@@ -0,0 +1,231 @@
+package util;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent catalog of demo headers, keyed by the absolute path of each demo and invalidated when
+ * its size or modification time changes. Entries are appended to a compact binary journal so
+ * saving only writes what changed since the last save; the journal is rewritten once it holds more
+ * stale records than live ones.
+ * <p>
+ * This class is safe to use from multiple threads.
+ */
+public class DemoCatalog {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final int MAGIC = 0x4c574443; // LWDC
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Entry> pending = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+    private int records = 0;
+
+    public DemoCatalog(Path file) {
+        this.file = file;
+    }
+
+    private static String key(Path demo) {
+        return demo.toAbsolutePath().normalize().toString();
+    }
+
+    private static void writeEntry(DataOutputStream out, String key, Entry e) throws IOException {
+        DemoHeader h = e.header;
+        out.writeUTF(key);
+        out.writeLong(e.size);
+        out.writeLong(e.lastModified);
+        out.writeUTF(h.getDemoStamp());
+        out.writeInt(h.getDemoProtocol());
+        out.writeInt(h.getNetworkProtocol());
+        out.writeUTF(h.getServerName());
+        out.writeUTF(h.getPlayerName());
+        out.writeUTF(h.getMapName());
+        out.writeUTF(h.getGameDirectory());
+        out.writeFloat(h.getPlaybackTime());
+        out.writeInt(h.getTickNumber());
+        out.writeInt(h.getFrameNumber());
+        out.writeInt(h.getSignonLength());
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        DemoHeader header = new DemoHeader(in.readUTF(), in.readInt(), in.readInt(), in.readUTF(),
+            in.readUTF(), in.readUTF(), in.readUTF(), in.readFloat(), in.readInt(), in.readInt(),
+            in.readInt());
+        return new Entry(size, lastModified, header);
+    }
+
+    /**
+     * Loads the catalog from disk. Called automatically on first use. A missing file results in an
+     * empty catalog, and a damaged tail is discarded.
+     */
+    public synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in =
+                 new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.info("Discarding demo catalog with unknown format: " + file);
+                return;
+            }
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                entries.put(key, readEntry(in));
+                records++;
+            }
+        } catch (EOFException e) {
+            log.fine("Demo catalog ended abruptly, keeping " + entries.size() + " entries");
+            // force a rewrite on the next save instead of appending after a damaged record
+            records = 0;
+        } catch (IOException e) {
+            log.log(Level.INFO, "Could not load demo catalog", e);
+        }
+        log.fine("Demo catalog loaded with " + entries.size() + " entries");
+    }
+
+    /**
+     * Returns the cached header of a demo if its size and modification time have not changed.
+     *
+     * @param demo  the demo file
+     * @param attrs the current attributes of the demo file
+     * @return the cached header or <code>null</code> if the demo must be read again
+     */
+    public DemoHeader getCached(Path demo, BasicFileAttributes attrs) {
+        load();
+        Entry e = entries.get(key(demo));
+        if (e != null && e.size == attrs.size() && e.lastModified == attrs.lastModifiedTime().toMillis()) {
+            return e.header;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the header of a demo, reading it from the file only when it is not cataloged or the
+     * file has changed since it was.
+     *
+     * @param demo the demo file
+     * @return the header of the demo
+     * @throws IOException if the demo could not be read or is not a valid demo
+     */
+    public DemoHeader get(Path demo) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(demo, BasicFileAttributes.class);
+        DemoHeader header = getCached(demo, attrs);
+        if (header == null) {
+            try (FileChannel channel = FileChannel.open(demo, StandardOpenOption.READ)) {
+                header = DemoHeader.read(channel);
+            }
+            put(demo, attrs, header);
+        }
+        return header;
+    }
+
+    /**
+     * Adds or replaces the header of a demo. It will be written to disk on the next {@link #save()}.
+     *
+     * @param demo   the demo file
+     * @param attrs  the attributes of the demo file at the time the header was read
+     * @param header the header of the demo
+     */
+    public void put(Path demo, BasicFileAttributes attrs, DemoHeader header) {
+        load();
+        String key = key(demo);
+        Entry e = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), header);
+        entries.put(key, e);
+        pending.put(key, e);
+    }
+
+    public int size() {
+        load();
+        return entries.size();
+    }
+
+    /**
+     * Writes all pending changes to disk.
+     */
+    public synchronized void save() {
+        load();
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            if (records > 0 && records + pending.size() <= entries.size() * 2 && Files.exists(file)) {
+                append();
+            } else {
+                rewrite();
+            }
+        } catch (IOException e) {
+            log.log(Level.INFO, "Could not save demo catalog", e);
+        }
+    }
+
+    private void append() throws IOException {
+        List<Map.Entry<String, Entry>> written = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(file, StandardOpenOption.APPEND)))) {
+            for (Map.Entry<String, Entry> e : pending.entrySet()) {
+                writeEntry(out, e.getKey(), e.getValue());
+                written.add(e);
+            }
+        }
+        for (Map.Entry<String, Entry> e : written) {
+            pending.remove(e.getKey(), e.getValue());
+            records++;
+        }
+    }
+
+    private void rewrite() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Map<String, Entry> flushed = new HashMap<>(pending);
+        int count = 0;
+        try (DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                writeEntry(out, e.getKey(), e.getValue());
+                count++;
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        for (Map.Entry<String, Entry> e : flushed.entrySet()) {
+            pending.remove(e.getKey(), e.getValue());
+        }
+        records = count;
+        log.finer("Demo catalog rewritten with " + count + " entries");
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final DemoHeader header;
+
+        Entry(long size, long lastModified, DemoHeader header) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.header = header;
+        }
+    }
+
+}
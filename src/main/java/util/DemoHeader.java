@@ -0,0 +1,190 @@
+package util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The fixed-size header found at the start of every Source engine demo file.
+ */
+public class DemoHeader {
+
+    public static final int SIZE = 1072;
+    public static final String STAMP = "HL2DEMO";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int STAMP_LENGTH = 8;
+    private static final int MAX_STRING_LENGTH = 260;
+
+    private final String demoStamp;
+    private final int demoProtocol;
+    private final int networkProtocol;
+    private final String serverName;
+    private final String playerName;
+    private final String mapName;
+    private final String gameDirectory;
+    private final float playbackTime;
+    private final int tickNumber;
+    private final int frameNumber;
+    private final int signonLength;
+
+    public DemoHeader(String demoStamp, int demoProtocol, int networkProtocol, String serverName,
+                      String playerName, String mapName, String gameDirectory, float playbackTime, int tickNumber,
+                      int frameNumber, int signonLength) {
+        this.demoStamp = demoStamp;
+        this.demoProtocol = demoProtocol;
+        this.networkProtocol = networkProtocol;
+        this.serverName = serverName;
+        this.playerName = playerName;
+        this.mapName = mapName;
+        this.gameDirectory = gameDirectory;
+        this.playbackTime = playbackTime;
+        this.tickNumber = tickNumber;
+        this.frameNumber = frameNumber;
+        this.signonLength = signonLength;
+    }
+
+    /**
+     * Reads a header from the current position of the given buffer, which is advanced past the
+     * header. The byte order of the buffer is left as little-endian.
+     *
+     * @param buffer a buffer with at least {@link #SIZE} bytes remaining
+     * @return the parsed header
+     * @throws IOException if there are not enough bytes or the file is not a demo
+     */
+    public static DemoHeader read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < SIZE) {
+            throw new EOFException("Demo header is truncated: " + buffer.remaining() + " bytes");
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        String stamp = readString(buffer, STAMP_LENGTH);
+        if (!STAMP.equals(stamp)) {
+            throw new IOException("Not a demo file, invalid stamp: " + stamp);
+        }
+        int demoProtocol = buffer.getInt();
+        int networkProtocol = buffer.getInt();
+        String serverName = readString(buffer, MAX_STRING_LENGTH);
+        String playerName = readString(buffer, MAX_STRING_LENGTH);
+        String mapName = readString(buffer, MAX_STRING_LENGTH);
+        String gameDirectory = readString(buffer, MAX_STRING_LENGTH);
+        float playbackTime = buffer.getFloat();
+        int tickNumber = buffer.getInt();
+        int frameNumber = buffer.getInt();
+        int signonLength = buffer.getInt();
+        return new DemoHeader(stamp, demoProtocol, networkProtocol, serverName, playerName, mapName,
+            gameDirectory, playbackTime, tickNumber, frameNumber, signonLength);
+    }
+
+    /**
+     * Reads a header from the start of the given channel using a single positional read, without
+     * changing the position of the channel.
+     *
+     * @param channel an open channel to a demo file
+     * @return the parsed header
+     * @throws IOException if the header could not be read or the file is not a demo
+     */
+    public static DemoHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return read(buffer);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        int start = buffer.position();
+        int end = start;
+        int limit = start + length;
+        while (end < limit && buffer.get(end) != 0) {
+            end++;
+        }
+        byte[] aux = new byte[end - start];
+        buffer.get(aux);
+        buffer.position(limit);
+        return new String(aux, UTF_8);
+    }
+
+    private static String formatSeconds(double seconds) {
+        long s = (long) seconds;
+        return String.format("%02d:%02d:%02d", TimeUnit.SECONDS.toHours(s),
+            TimeUnit.SECONDS.toMinutes(s) - TimeUnit.HOURS.toMinutes(TimeUnit.SECONDS.toHours(s)),
+            TimeUnit.SECONDS.toSeconds(s) - TimeUnit.MINUTES.toSeconds(TimeUnit.SECONDS.toMinutes(s)));
+    }
+
+    public String getDemoStamp() {
+        return demoStamp;
+    }
+
+    public int getDemoProtocol() {
+        return demoProtocol;
+    }
+
+    public int getNetworkProtocol() {
+        return networkProtocol;
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public String getMapName() {
+        return mapName;
+    }
+
+    public String getGameDirectory() {
+        return gameDirectory;
+    }
+
+    public float getPlaybackTime() {
+        return playbackTime;
+    }
+
+    public int getTickNumber() {
+        return tickNumber;
+    }
+
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    public int getSignonLength() {
+        return signonLength;
+    }
+
+    /**
+     * Returns the duration of a single tick in seconds, derived from the playback time and the
+     * number of ticks in this demo.
+     *
+     * @return the tick interval, or <code>0</code> if this demo has no ticks
+     */
+    public double getTickInterval() {
+        return tickNumber > 0 ? playbackTime / tickNumber : 0;
+    }
+
+    @Override
+    public String toString() {
+        String str = "";
+        str += "Stamp: " + demoStamp;
+        str += "\nDemoProtocol: " + demoProtocol;
+        str += "\nNetworkProtocol: " + networkProtocol;
+        str += "\nGameDirectory: " + gameDirectory;
+        str += "\nPlaybackTime: " + formatSeconds(playbackTime);
+        str += "\nServer: " + serverName;
+        str += "\nPlayer: " + playerName;
+        str += "\nMap: " + mapName;
+        str += "\nTicks: " + tickNumber;
+        return str;
+    }
+
+}
@@ -0,0 +1,297 @@
+package util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Reads every frame of a Source engine demo file in a single forward pass. The file is read with
+ * positional reads into a heap buffer that is refilled as frames are consumed, and frames are
+ * exposed through a cursor: call {@link #next()} to advance and then query the current frame with
+ * {@link #getCommand()}, {@link #getTick()} and {@link #getPayload()}. No objects are created per
+ * frame unless the payload is requested.
+ * <p>
+ * The file is not memory mapped: on Windows a mapping keeps the demo locked until it is garbage
+ * collected, even after the reader is closed, which prevents the game from replacing or deleting
+ * it.
+ * <p>
+ * Usage:
+ * <pre>
+ * try (DemoReader reader = new DemoReader(path)) {
+ *     while (reader.next()) {
+ *         if (reader.getCommand() == DemoReader.Command.CONSOLECMD) {
+ *             String cmd = reader.getConsoleCommand();
+ *         }
+ *     }
+ * }
+ * </pre>
+ */
+public class DemoReader implements Closeable {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+    private final DemoHeader header;
+    private final int commandInfoLength;
+    private final boolean hasPlayerSlot;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long filePosition = 0;
+    private Command command;
+    private int tick;
+    private int payloadOffset;
+    private int payloadLength;
+    private boolean stopped = false;
+    private boolean truncated = false;
+
+    public DemoReader(Path demoPath) throws IOException {
+        channel = FileChannel.open(demoPath, StandardOpenOption.READ);
+        try {
+            buffer.flip();
+            fill(DemoHeader.SIZE);
+            header = DemoHeader.read(buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        // newer demo protocols carry split screen command info and a player slot per frame
+        hasPlayerSlot = header.getDemoProtocol() >= 4;
+        commandInfoLength = hasPlayerSlot ? 152 : 76;
+    }
+
+    public DemoHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Makes sure the buffer holds at least the given number of bytes after its position, reading
+     * more of the file if needed.
+     *
+     * @return <code>true</code> if there are enough bytes, <code>false</code> if the file ends first
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        if (bytes - buffer.remaining() > channel.size() - filePosition) {
+            // also stops corrupt lengths from allocating huge buffers
+            return false;
+        }
+        if (buffer.capacity() < bytes) {
+            // a frame larger than the buffer, like big data tables
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, buffer.capacity() * 2));
+            larger.order(ByteOrder.LITTLE_ENDIAN);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < bytes) {
+            int n = channel.read(buffer, filePosition);
+            if (n < 0) {
+                break;
+            }
+            filePosition += n;
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * Advances to the next frame of the demo. Payloads of the previous frame are no longer valid
+     * after this call.
+     *
+     * @return <code>true</code> if a frame was read, <code>false</code> if the stop command or the
+     * end of the file was reached
+     * @throws IOException if the demo could not be read
+     */
+    public boolean next() throws IOException {
+        if (stopped) {
+            return false;
+        }
+        payloadOffset = 0;
+        payloadLength = 0;
+        try {
+            if (!fill(hasPlayerSlot ? 6 : 5)) {
+                throw new EOFException("Frame header is truncated");
+            }
+            int id = buffer.get() & 0xff;
+            tick = buffer.getInt();
+            if (hasPlayerSlot) {
+                buffer.get();
+            }
+            command = Command.from(id, header.getDemoProtocol());
+            switch (command) {
+                case SIGNON:
+                case PACKET:
+                    // command info, sequence in and sequence out
+                    skip(commandInfoLength + 8);
+                    readPayload();
+                    break;
+                case SYNCTICK:
+                    break;
+                case USERCMD:
+                    // outgoing sequence
+                    skip(4);
+                    readPayload();
+                    break;
+                case CUSTOMDATA:
+                    // callback index
+                    skip(4);
+                    readPayload();
+                    break;
+                case CONSOLECMD:
+                case DATATABLES:
+                case STRINGTABLES:
+                    readPayload();
+                    break;
+                case STOP:
+                    stopped = true;
+                    return true;
+                default:
+                    log.fine("Unknown demo command " + id + " at tick " + tick + ", stopping");
+                    truncated = true;
+                    stopped = true;
+                    return false;
+            }
+            return true;
+        } catch (EOFException | IllegalArgumentException e) {
+            // the game was closed or crashed while writing the demo
+            log.fine("Demo ended abruptly at tick " + tick + ": " + e);
+            truncated = true;
+            stopped = true;
+            return false;
+        }
+    }
+
+    private void skip(int bytes) throws IOException {
+        if (!fill(bytes)) {
+            throw new EOFException("Frame is truncated");
+        }
+        buffer.position(buffer.position() + bytes);
+    }
+
+    private void readPayload() throws IOException {
+        if (!fill(4)) {
+            throw new EOFException("Payload length is truncated");
+        }
+        int length = buffer.getInt();
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid payload length: " + length);
+        }
+        if (!fill(length)) {
+            throw new EOFException("Payload is truncated");
+        }
+        payloadOffset = buffer.position();
+        payloadLength = length;
+        skip(length);
+    }
+
+    /**
+     * @return the command of the current frame
+     */
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the tick of the current frame
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * @return the length in bytes of the payload of the current frame
+     */
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Returns a read-only view of the payload of the current frame. The view shares the buffer of
+     * this reader, so it must not be used after calling {@link #next()} again.
+     *
+     * @return a little-endian buffer with the payload of the current frame, empty if the current
+     * frame has no payload
+     */
+    public ByteBuffer getPayload() {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(payloadOffset + payloadLength);
+        view.position(payloadOffset);
+        return view.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Decodes the payload of the current frame as a console command.
+     *
+     * @return the command text, or <code>null</code> if the current frame is not a console command
+     */
+    public String getConsoleCommand() {
+        if (command != Command.CONSOLECMD) {
+            return null;
+        }
+        int end = payloadOffset;
+        int limit = payloadOffset + payloadLength;
+        while (end < limit && buffer.get(end) != 0) {
+            end++;
+        }
+        byte[] aux = new byte[end - payloadOffset];
+        ByteBuffer view = buffer.duplicate();
+        view.position(payloadOffset);
+        view.get(aux);
+        return new String(aux, UTF_8);
+    }
+
+    /**
+     * @return <code>true</code> if the demo ended before a stop command was found
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public enum Command {
+        SIGNON, PACKET, SYNCTICK, CONSOLECMD, USERCMD, DATATABLES, STOP, CUSTOMDATA, STRINGTABLES, UNKNOWN;
+
+        static Command from(int id, int demoProtocol) {
+            switch (id) {
+                case 1:
+                    return SIGNON;
+                case 2:
+                    return PACKET;
+                case 3:
+                    return SYNCTICK;
+                case 4:
+                    return CONSOLECMD;
+                case 5:
+                    return USERCMD;
+                case 6:
+                    return DATATABLES;
+                case 7:
+                    return STOP;
+                case 8:
+                    // protocol 4 inserted custom data before string tables
+                    return demoProtocol >= 4 ? CUSTOMDATA : STRINGTABLES;
+                case 9:
+                    return demoProtocol >= 4 ? STRINGTABLES : UNKNOWN;
+                default:
+                    return UNKNOWN;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scans folders for demo files and reads their headers into a {@link DemoCatalog} using a fixed
+ * number of concurrent reads. Demos already cataloged with the same size and modification time
+ * are not opened again, and the catalog is saved periodically so an interrupted scan keeps its
+ * progress.
+ * <p>
+ * A scan is cancelled by interrupting the thread that called {@link #scan(ProgressListener)}.
+ */
+public class DemoScanner {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final long SAVE_INTERVAL_MILLIS = 2000;
+
+    private final DemoCatalog catalog;
+    private final int threads;
+    private final Map<Path, Integer> folders = new LinkedHashMap<>();
+
+    /**
+     * @param catalog the catalog where results are stored
+     * @param threads the maximum number of demo headers read at the same time
+     */
+    public DemoScanner(DemoCatalog catalog, int threads) {
+        this.catalog = catalog;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Adds a folder to be scanned.
+     *
+     * @param dir      the folder, ignored if it does not exist
+     * @param maxDepth the maximum number of directory levels to visit, 1 for the folder contents only
+     */
+    public void addFolder(Path dir, int maxDepth) {
+        folders.merge(dir.toAbsolutePath().normalize(), maxDepth, Math::max);
+    }
+
+    /**
+     * Scans all added folders, blocking until every demo was read or the scan is cancelled.
+     *
+     * @param listener notified from the calling thread as demos are processed, can be
+     *                 <code>null</code>
+     * @return the result of this scan
+     * @throws InterruptedException if the scan was cancelled, after saving the demos read so far
+     */
+    public Result scan(ProgressListener listener) throws InterruptedException {
+        Result result = new Result();
+        List<Pending> toRead = collect(result);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        result.total = toRead.size() + result.cached;
+        if (listener != null) {
+            listener.progress(result.cached, result.total);
+        }
+        if (toRead.isEmpty()) {
+            return result;
+        }
+        log.fine("Reading " + toRead.size() + " demo headers, " + result.cached + " already cataloged");
+
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, toRead.size()), r -> {
+            Thread t = new Thread(r, "DemoScanner");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        for (Pending p : toRead) {
+            completion.submit(() -> {
+                try (FileChannel channel = FileChannel.open(p.path, StandardOpenOption.READ)) {
+                    catalog.put(p.path, p.attrs, DemoHeader.read(channel));
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    log.finer("Skipping " + p.path + ": " + e);
+                }
+                return null;
+            });
+        }
+
+        int done = result.cached;
+        long lastSave = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < toRead.size(); i++) {
+                completion.take();
+                done++;
+                if (listener != null) {
+                    listener.progress(done, result.total);
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSave >= SAVE_INTERVAL_MILLIS) {
+                    catalog.save();
+                    lastSave = now;
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            // the interrupt flag is clear at this point, otherwise writing the catalog would be aborted
+            catalog.save();
+            log.fine("Demo scan cancelled after " + done + " of " + result.total + " demos");
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+        catalog.save();
+        result.failed = failed.get();
+        result.read = toRead.size() - result.failed;
+        return result;
+    }
+
+    private List<Pending> collect(Result result) {
+        Set<Path> seen = new HashSet<>();
+        List<Pending> list = new ArrayList<>();
+        for (Map.Entry<Path, Integer> folder : folders.entrySet()) {
+            Path dir = folder.getKey();
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), folder.getValue(),
+                    new SimpleFileVisitor<Path>() {
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                return FileVisitResult.TERMINATE;
+                            }
+                            if (attrs.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".dem")
+                                && seen.add(file)) {
+                                if (catalog.getCached(file, attrs) != null) {
+                                    result.cached++;
+                                } else {
+                                    list.add(new Pending(file, attrs));
+                                }
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) {
+                            log.finer("Could not access " + file + ": " + e);
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                    });
+            } catch (IOException e) {
+                log.log(Level.FINE, "Could not scan folder " + dir, e);
+            }
+        }
+        return list;
+    }
+
+    public interface ProgressListener {
+
+        /**
+         * @param scanned the number of demos processed so far, including already cataloged ones
+         * @param total   the total number of demos found
+         */
+        void progress(int scanned, int total);
+
+    }
+
+    public static class Result {
+
+        private int total;
+        private int cached;
+        private int read;
+        private int failed;
+
+        /**
+         * @return the number of demo files found
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the number of demos that were already cataloged and did not need to be read
+         */
+        public int getCached() {
+            return cached;
+        }
+
+        /**
+         * @return the number of demo headers read from disk
+         */
+        public int getRead() {
+            return read;
+        }
+
+        /**
+         * @return the number of files that could not be read or were not valid demos
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+    }
+
+    private static class Pending {
+        private final Path path;
+        private final BasicFileAttributes attrs;
+
+        Pending(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+
+}
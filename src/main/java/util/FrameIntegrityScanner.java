@@ -0,0 +1,353 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the frames recorded to a movie folder for problems left by crashes, full disks or the game
+ * losing focus: missing frame numbers, empty or truncated files and frame numbers present more than
+ * once. Only a few bytes of each file are read, using positional reads, and segments are checked in
+ * parallel.
+ * <p>
+ * The expected size of an uncompressed TGA frame is computed from its header. Run-length encoded
+ * TGA, PNG and JPG frames can't be sized that way, so only their signature and end marker are
+ * checked. A TGA frame with a PNG of the same number is being recompressed and counts as a single
+ * frame, which is fine as long as one of the two files is complete.
+ */
+public class FrameIntegrityScanner {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final Pattern FRAME = Pattern.compile("([^_]+)_(\\d+)\\.(tga|jpg|png)");
+    private static final int TGA_HEADER = 18;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] PNG_END = {'I', 'E', 'N', 'D'};
+
+    private final int threads;
+
+    /**
+     * @param threads the maximum number of segments checked at the same time
+     */
+    public FrameIntegrityScanner(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Checks all frames in a folder.
+     *
+     * @param folder the movie folder
+     * @return a report for each segment found, ordered by prefix
+     * @throws IOException          if the folder could not be listed
+     * @throws InterruptedException if the scan was interrupted
+     */
+    public List<Report> scan(Path folder) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        final Map<String, List<Frame>> segments = new TreeMap<>();
+        // the file tree walker gets the attributes together with the listing on Windows
+        Files.walkFileTree(folder, EnumSet.noneOf(FileVisitOption.class), 1,
+            new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    Matcher m = FRAME.matcher(file.getFileName().toString());
+                    if (attrs.isRegularFile() && m.matches()) {
+                        List<Frame> frames = segments.get(m.group(1));
+                        if (frames == null) {
+                            frames = new ArrayList<>();
+                            segments.put(m.group(1), frames);
+                        }
+                        frames.add(new Frame(file, Integer.parseInt(m.group(2)), m.group(3), attrs.size()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        List<Report> reports = new ArrayList<>();
+        if (segments.isEmpty()) {
+            return reports;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, segments.size()), r -> {
+            Thread t = new Thread(r, "FrameIntegrityScanner");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Report>> futures = new ArrayList<>();
+            for (final Map.Entry<String, List<Frame>> e : segments.entrySet()) {
+                futures.add(executor.submit(() -> check(e.getKey(), e.getValue())));
+            }
+            for (Future<Report> future : futures) {
+                reports.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        int frames = 0;
+        for (Report r : reports) {
+            frames += r.frames;
+        }
+        log.fine("Verified " + frames + " frames in " + reports.size() + " segments in "
+            + (System.currentTimeMillis() - start) + " ms");
+        return reports;
+    }
+
+    private Report check(String prefix, List<Frame> frames) throws InterruptedException {
+        Report report = new Report(prefix);
+        Collections.sort(frames, (a, b) -> Integer.compare(a.number, b.number));
+        ByteBuffer buffer = ByteBuffer.allocate(TGA_HEADER);
+        int expected = 0;
+        int from = 0;
+        while (from < frames.size()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            int number = frames.get(from).number;
+            int to = from;
+            while (to < frames.size() && frames.get(to).number == number) {
+                to++;
+            }
+            List<Frame> files = new ArrayList<>(frames.subList(from, to));
+            from = to;
+            report.frames++;
+            report.lastFrame = number;
+            if (number > expected) {
+                report.missing.add(new int[]{expected, number - 1});
+            }
+            expected = number + 1;
+
+            Frame tga = find(files, "tga");
+            Frame png = find(files, "png");
+            if (tga != null && png != null) {
+                // a frame being recompressed has its TGA and PNG side by side, either one is enough
+                files.remove(tga);
+                files.remove(png);
+                if (problem(report, png, buffer) != null) {
+                    List<Path> problem = problem(report, tga, buffer);
+                    if (problem != null) {
+                        problem.add(tga.path);
+                    }
+                }
+            } else {
+                Frame first = files.remove(0);
+                List<Path> problem = problem(report, first, buffer);
+                if (problem != null) {
+                    problem.add(first.path);
+                }
+            }
+            for (Frame frame : files) {
+                report.duplicates.add(frame.path);
+                List<Path> problem = problem(report, frame, buffer);
+                if (problem != null) {
+                    problem.add(frame.path);
+                }
+            }
+        }
+        return report;
+    }
+
+    private static Frame find(List<Frame> frames, String format) {
+        for (Frame frame : frames) {
+            if (frame.format.equals(format)) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the list of the report where the frame belongs, or <code>null</code> if it is valid
+     */
+    private static List<Path> problem(Report report, Frame frame, ByteBuffer buffer) {
+        if (frame.size == 0) {
+            return report.empty;
+        }
+        try (FileChannel channel = FileChannel.open(frame.path, StandardOpenOption.READ)) {
+            return valid(channel, frame, buffer) ? null : report.truncated;
+        } catch (IOException e) {
+            return report.truncated;
+        }
+    }
+
+    private static boolean valid(FileChannel channel, Frame frame, ByteBuffer buffer)
+        throws IOException {
+        switch (frame.format) {
+            case "tga":
+                return validTga(channel, frame.size, buffer);
+            case "png":
+                return matches(channel, 0, PNG_SIGNATURE, buffer)
+                    && frame.size >= 12 && matches(channel, frame.size - 8, PNG_END, buffer);
+            case "jpg":
+                return frame.size >= 4 && matches(channel, 0, new byte[]{(byte) 0xff, (byte) 0xd8}, buffer)
+                    && matches(channel, frame.size - 2, new byte[]{(byte) 0xff, (byte) 0xd9}, buffer);
+            default:
+                return true;
+        }
+    }
+
+    private static boolean validTga(FileChannel channel, long size, ByteBuffer buffer)
+        throws IOException {
+        if (size < TGA_HEADER || !read(channel, 0, TGA_HEADER, buffer)) {
+            return false;
+        }
+        int idLength = buffer.get(0) & 0xff;
+        int colorMapType = buffer.get(1) & 0xff;
+        int imageType = buffer.get(2) & 0xff;
+        int colorMapLength = (buffer.get(5) & 0xff) | (buffer.get(6) & 0xff) << 8;
+        int colorMapDepth = buffer.get(7) & 0xff;
+        int width = (buffer.get(12) & 0xff) | (buffer.get(13) & 0xff) << 8;
+        int height = (buffer.get(14) & 0xff) | (buffer.get(15) & 0xff) << 8;
+        int depth = buffer.get(16) & 0xff;
+        if (width == 0 || height == 0 || depth == 0) {
+            return false;
+        }
+        long minimum = TGA_HEADER + idLength
+            + (colorMapType == 1 ? colorMapLength * ((colorMapDepth + 7) / 8) : 0);
+        if (imageType == 1 || imageType == 2 || imageType == 3) {
+            // uncompressed pixel data, possibly followed by a footer
+            minimum += (long) width * height * ((depth + 7) / 8);
+        }
+        return size >= minimum;
+    }
+
+    private static boolean matches(FileChannel channel, long position, byte[] expected,
+                                   ByteBuffer buffer) throws IOException {
+        if (position < 0 || !read(channel, position, expected.length, buffer)) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean read(FileChannel channel, long position, int length, ByteBuffer buffer)
+        throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class Report {
+
+        private final String prefix;
+        private final List<int[]> missing = new ArrayList<>();
+        private final List<Path> empty = new ArrayList<>();
+        private final List<Path> truncated = new ArrayList<>();
+        private final List<Path> duplicates = new ArrayList<>();
+        private int frames = 0;
+        private int lastFrame = -1;
+
+        Report(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * @return the number of frames found
+         */
+        public int getFrames() {
+            return frames;
+        }
+
+        public int getLastFrame() {
+            return lastFrame;
+        }
+
+        /**
+         * @return the ranges of missing frame numbers, each as an array of the first and last
+         * missing frame
+         */
+        public List<int[]> getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return the total number of missing frames
+         */
+        public int getMissingCount() {
+            int count = 0;
+            for (int[] range : missing) {
+                count += range[1] - range[0] + 1;
+            }
+            return count;
+        }
+
+        /**
+         * @return the frames with no contents
+         */
+        public List<Path> getEmpty() {
+            return empty;
+        }
+
+        /**
+         * @return the frames that are shorter than their header says or are not valid images
+         */
+        public List<Path> getTruncated() {
+            return truncated;
+        }
+
+        /**
+         * @return the files with a frame number already used by another file of the segment, other
+         * than the PNG of a TGA frame being recompressed
+         */
+        public List<Path> getDuplicates() {
+            return duplicates;
+        }
+
+        public boolean isClean() {
+            return missing.isEmpty() && empty.isEmpty() && truncated.isEmpty() && duplicates.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            if (isClean()) {
+                return prefix + ": " + frames + " frames OK";
+            }
+            return prefix + ": " + frames + " frames, " + getMissingCount() + " missing, "
+                + empty.size() + " empty, " + truncated.size() + " truncated, " + duplicates.size()
+                + " duplicated";
+        }
+
+    }
+
+    private static class Frame {
+        private final Path path;
+        private final int number;
+        private final String format;
+        private final long size;
+
+        Frame(Path path, int number, String format, long size) {
+            this.path = path;
+            this.number = number;
+            this.format = format;
+            this.size = size;
+        }
+    }
+
+}
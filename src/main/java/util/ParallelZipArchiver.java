@@ -0,0 +1,572 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes folders into a standard zip file, compressing on a pool of threads. Files are read in
+ * blocks and each block is deflated on its own, primed with the end of the previous block, then the
+ * blocks are joined into a single deflate stream and written in order. Only a bounded number of
+ * blocks is kept in memory at a time, so the size of the folders doesn't matter. Archives over 4 GB
+ * or with more than 65535 entries use the zip64 extensions.
+ * <p>
+ * Files that are already compressed, like VPKs and maps, are stored as they are. An archive is
+ * cancelled by interrupting the thread that called {@link #archive(Path, List, ProgressListener)},
+ * and a cancelled or failed archive is deleted.
+ */
+public class ParallelZipArchiver {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final long PROGRESS_INTERVAL_MILLIS = 100;
+    private static final Set<String> STORED_EXTENSIONS =
+        new HashSet<>(Arrays.asList("vpk", "bsp", "zip", "bz2", "7z", "mp3"));
+    // an empty final block, closing a deflate stream made of sync flushed blocks
+    private static final byte[] FINAL_BLOCK = {3, 0};
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final short STORED = 0;
+    private static final short DEFLATED = 8;
+
+    private final int threads;
+
+    /**
+     * @param threads the number of blocks compressed at the same time, or 0 to use the processors
+     */
+    public ParallelZipArchiver(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static boolean isStored(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase());
+    }
+
+    private static int dosTime(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+            | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    private static byte[] deflate(byte[] block, int length, byte[] dictionary) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(block, 0, length);
+            byte[] buf = new byte[length / 2 + 1024];
+            int size = 0;
+            while (true) {
+                // a sync flush ends the block on a byte boundary so the next one can follow it
+                int n = deflater.deflate(buf, size, buf.length - size, Deflater.SYNC_FLUSH);
+                size += n;
+                if (size < buf.length) {
+                    return Arrays.copyOf(buf, size);
+                }
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Archives some folders, each one as a top level folder in the zip file.
+     *
+     * @param zip      the zip file to create, replaced if it exists
+     * @param folders  the folders to archive, the ones that do not exist are skipped
+     * @param listener notified from the calling thread at most every 100 ms, can be
+     *                 <code>null</code>
+     * @return the result of this archive
+     * @throws IOException          if the archive could not be written
+     * @throws InterruptedException if the archive was cancelled
+     */
+    public Result archive(Path zip, List<Path> folders, ProgressListener listener)
+        throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        final List<Item> items = new ArrayList<>();
+        long total = 0;
+        for (final Path folder : folders) {
+            if (!Files.isDirectory(folder)) {
+                continue;
+            }
+            final Path base = folder.toAbsolutePath().getParent();
+            Files.walkFileTree(folder.toAbsolutePath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    items.add(new Item(dir, name(base, dir) + "/", 0, attrs.lastModifiedTime().toMillis(), true));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    items.add(new Item(file, name(base, file), attrs.size(),
+                        attrs.lastModifiedTime().toMillis(), false));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        for (Item item : items) {
+            total += item.size;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ParallelZipArchiver");
+            t.setDaemon(true);
+            return t;
+        });
+        Job job = new Job(zip, total, listener, executor);
+        boolean done = false;
+        try {
+            for (Item item : items) {
+                job.add(item);
+            }
+            job.finish();
+            done = true;
+        } finally {
+            executor.shutdownNow();
+            job.close();
+            if (!done) {
+                Files.deleteIfExists(zip);
+            }
+        }
+        job.result.files = items.size();
+        job.result.millis = System.currentTimeMillis() - start;
+        if (listener != null) {
+            listener.progress(total, total);
+        }
+        log.fine("Archived " + items.size() + " entries into " + zip + ": " + job.result.bytes + " -> "
+            + job.result.compressedBytes + " bytes in " + job.result.millis + " ms");
+        return job.result;
+    }
+
+    private static String name(Path base, Path path) {
+        return base.relativize(path).toString().replace('\\', '/');
+    }
+
+    public interface ProgressListener {
+
+        /**
+         * @param bytes the number of bytes archived so far
+         * @param total the total number of bytes to archive
+         */
+        void progress(long bytes, long total);
+
+    }
+
+    private interface Step {
+
+        void run() throws IOException, InterruptedException;
+
+    }
+
+    private static class Item {
+        private final Path path;
+        private final String name;
+        private final long size;
+        private final long modified;
+        private final boolean directory;
+
+        Item(Path path, String name, long size, long modified, boolean directory) {
+            this.path = path;
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.directory = directory;
+        }
+    }
+
+    private static class Entry {
+        private byte[] name;
+        private short method;
+        private int time;
+        private boolean zip64;
+        private long offset;
+        private long crc;
+        private long size;
+        private long compressedSize;
+    }
+
+    /**
+     * Buffers the small writes to the zip file and lets already written headers be completed.
+     */
+    private static class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long flushed = 0;
+
+        Output(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void write(byte[] b) throws IOException {
+            if (b.length > buffer.remaining()) {
+                flush();
+                if (b.length > buffer.capacity()) {
+                    writeFully(ByteBuffer.wrap(b), -1);
+                    flushed += b.length;
+                    return;
+                }
+            }
+            buffer.put(b);
+        }
+
+        void write(ByteBuffer b) throws IOException {
+            write(Arrays.copyOf(b.array(), b.position()));
+        }
+
+        /**
+         * Overwrites bytes written before.
+         */
+        void patch(long position, ByteBuffer b) throws IOException {
+            b.flip();
+            if (position < flushed) {
+                flush();
+                writeFully(b, position);
+            } else {
+                int at = (int) (position - flushed);
+                while (b.hasRemaining()) {
+                    buffer.put(at++, b.get());
+                }
+            }
+        }
+
+        private void writeFully(ByteBuffer b, long position) throws IOException {
+            while (b.hasRemaining()) {
+                if (position < 0) {
+                    channel.write(b);
+                } else {
+                    position += channel.write(b, position);
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            flushed += buffer.remaining();
+            writeFully(buffer, -1);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * The state of one archive. Files are read and the archive is written on the calling thread,
+     * only compression runs on the pool. Steps are queued in file order and run once the queue is
+     * full, waiting for the compressed blocks they write.
+     */
+    private class Job implements Closeable {
+        private final Output out;
+        private final long total;
+        private final ProgressListener listener;
+        private final ExecutorService executor;
+        private final Deque<Step> pending = new ArrayDeque<>();
+        private final int maxPending = threads * 4;
+        private final List<Entry> entries = new ArrayList<>();
+        private final Result result = new Result();
+        private long lastProgress = System.currentTimeMillis();
+
+        Job(Path zip, long total, ProgressListener listener, ExecutorService executor) throws IOException {
+            this.out = new Output(zip);
+            this.total = total;
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        private void queue(Step step) throws IOException, InterruptedException {
+            pending.add(step);
+            while (pending.size() > maxPending) {
+                pending.poll().run();
+            }
+        }
+
+        private void written(long bytes, long compressed) {
+            result.bytes += bytes;
+            result.compressedBytes += compressed;
+            long now = System.currentTimeMillis();
+            if (listener != null && now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                lastProgress = now;
+                listener.progress(result.bytes, total);
+            }
+        }
+
+        void add(Item item) throws IOException, InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException("Archive cancelled");
+            }
+            final Entry e = new Entry();
+            e.name = item.name.getBytes(StandardCharsets.UTF_8);
+            e.method = item.directory || isStored(item.name) ? STORED : DEFLATED;
+            e.time = dosTime(item.modified);
+            // leave room for deflate to grow an incompressible file
+            e.zip64 = item.size + item.size / 100 + 1024 >= ZIP64_LIMIT;
+            queue(() -> writeLocalHeader(e));
+            if (!item.directory) {
+                CRC32 crc = new CRC32();
+                try (InputStream in = Files.newInputStream(item.path)) {
+                    byte[] previous = null;
+                    while (true) {
+                        final byte[] block = new byte[BLOCK_SIZE];
+                        final int length = read(in, block);
+                        if (length <= 0) {
+                            break;
+                        }
+                        crc.update(block, 0, length);
+                        e.size += length;
+                        if (e.method == STORED) {
+                            queue(() -> {
+                                out.write(length == block.length ? block : Arrays.copyOf(block, length));
+                                e.compressedSize += length;
+                                written(length, length);
+                            });
+                        } else {
+                            final byte[] dictionary = previous == null ? null
+                                : Arrays.copyOfRange(previous, BLOCK_SIZE - DICTIONARY_SIZE, BLOCK_SIZE);
+                            final Future<byte[]> future = executor.submit(() -> deflate(block, length, dictionary));
+                            queue(() -> {
+                                byte[] compressed = get(future);
+                                out.write(compressed);
+                                e.compressedSize += compressed.length;
+                                written(length, compressed.length);
+                            });
+                        }
+                        // only full blocks are followed by another one
+                        previous = block;
+                    }
+                }
+                if (e.method == DEFLATED) {
+                    queue(() -> {
+                        out.write(FINAL_BLOCK);
+                        e.compressedSize += FINAL_BLOCK.length;
+                    });
+                }
+                e.crc = crc.getValue();
+            }
+            queue(() -> finishEntry(e));
+        }
+
+        private int read(InputStream in, byte[] block) throws IOException {
+            int length = 0;
+            int n;
+            while (length < block.length && (n = in.read(block, length, block.length - length)) >= 0) {
+                length += n;
+            }
+            return length;
+        }
+
+        private byte[] get(Future<byte[]> future) throws IOException, InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException ex) {
+                throw new IOException("Could not compress block", ex.getCause());
+            }
+        }
+
+        private ByteBuffer buffer(int size) {
+            return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void writeLocalHeader(Entry e) throws IOException {
+            e.offset = out.position();
+            ByteBuffer b = buffer(30 + e.name.length + (e.zip64 ? 20 : 0));
+            b.putInt(LOCAL_HEADER);
+            b.putShort((short) (e.zip64 ? 45 : 20));
+            b.putShort((short) UTF8_FLAG);
+            b.putShort(e.method);
+            b.putInt(e.time);
+            // crc and sizes are completed once the entry is written
+            b.putInt(0);
+            b.putInt(e.zip64 ? -1 : 0);
+            b.putInt(e.zip64 ? -1 : 0);
+            b.putShort((short) e.name.length);
+            b.putShort((short) (e.zip64 ? 20 : 0));
+            b.put(e.name);
+            if (e.zip64) {
+                b.putShort((short) 1);
+                b.putShort((short) 16);
+                b.putLong(0);
+                b.putLong(0);
+            }
+            out.write(b);
+        }
+
+        private void finishEntry(Entry e) throws IOException {
+            if (!e.zip64 && (e.size >= ZIP64_LIMIT || e.compressedSize >= ZIP64_LIMIT)) {
+                throw new IOException("File grew while it was archived: " + new String(e.name,
+                    StandardCharsets.UTF_8));
+            }
+            ByteBuffer crc = buffer(4);
+            crc.putInt((int) e.crc);
+            out.patch(e.offset + 14, crc);
+            if (e.zip64) {
+                ByteBuffer sizes = buffer(16);
+                sizes.putLong(e.size);
+                sizes.putLong(e.compressedSize);
+                out.patch(e.offset + 30 + e.name.length + 4, sizes);
+            } else {
+                ByteBuffer sizes = buffer(8);
+                sizes.putInt((int) e.compressedSize);
+                sizes.putInt((int) e.size);
+                out.patch(e.offset + 18, sizes);
+            }
+            entries.add(e);
+        }
+
+        void finish() throws IOException, InterruptedException {
+            while (!pending.isEmpty()) {
+                pending.poll().run();
+            }
+            long start = out.position();
+            for (Entry e : entries) {
+                writeCentralHeader(e);
+            }
+            long end = out.position();
+            boolean zip64 = entries.size() >= 0xFFFF || start >= ZIP64_LIMIT || end - start >= ZIP64_LIMIT;
+            if (zip64) {
+                ByteBuffer b = buffer(56 + 20);
+                b.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+                b.putLong(44);
+                b.putShort((short) 45);
+                b.putShort((short) 45);
+                b.putInt(0);
+                b.putInt(0);
+                b.putLong(entries.size());
+                b.putLong(entries.size());
+                b.putLong(end - start);
+                b.putLong(start);
+                b.putInt(ZIP64_LOCATOR);
+                b.putInt(0);
+                b.putLong(end);
+                b.putInt(1);
+                out.write(b);
+            }
+            ByteBuffer b = buffer(22);
+            b.putInt(END_OF_CENTRAL_DIRECTORY);
+            b.putShort((short) 0);
+            b.putShort((short) 0);
+            b.putShort((short) Math.min(entries.size(), 0xFFFF));
+            b.putShort((short) Math.min(entries.size(), 0xFFFF));
+            b.putInt((int) Math.min(end - start, ZIP64_LIMIT));
+            b.putInt((int) Math.min(start, ZIP64_LIMIT));
+            b.putShort((short) 0);
+            out.write(b);
+        }
+
+        private void writeCentralHeader(Entry e) throws IOException {
+            boolean bigSize = e.size >= ZIP64_LIMIT;
+            boolean bigCompressedSize = e.compressedSize >= ZIP64_LIMIT;
+            boolean bigOffset = e.offset >= ZIP64_LIMIT;
+            int extra = (bigSize ? 8 : 0) + (bigCompressedSize ? 8 : 0) + (bigOffset ? 8 : 0);
+            if (extra > 0) {
+                extra += 4;
+            }
+            ByteBuffer b = buffer(46 + e.name.length + extra);
+            b.putInt(CENTRAL_HEADER);
+            b.putShort((short) 45);
+            b.putShort((short) (extra > 0 || e.zip64 ? 45 : 20));
+            b.putShort((short) UTF8_FLAG);
+            b.putShort(e.method);
+            b.putInt(e.time);
+            b.putInt((int) e.crc);
+            b.putInt((int) Math.min(e.compressedSize, ZIP64_LIMIT));
+            b.putInt((int) Math.min(e.size, ZIP64_LIMIT));
+            b.putShort((short) e.name.length);
+            b.putShort((short) extra);
+            b.putShort((short) 0);
+            b.putShort((short) 0);
+            b.putShort((short) 0);
+            b.putInt(0);
+            b.putInt((int) Math.min(e.offset, ZIP64_LIMIT));
+            b.put(e.name);
+            if (extra > 0) {
+                b.putShort((short) 1);
+                b.putShort((short) (extra - 4));
+                if (bigSize) {
+                    b.putLong(e.size);
+                }
+                if (bigCompressedSize) {
+                    b.putLong(e.compressedSize);
+                }
+                if (bigOffset) {
+                    b.putLong(e.offset);
+                }
+            }
+            out.write(b);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static class Result {
+
+        private int files;
+        private long bytes;
+        private long compressedBytes;
+        private long millis;
+
+        /**
+         * @return the number of files and folders archived
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+    }
+
+}
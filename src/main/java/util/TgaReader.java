@@ -0,0 +1,246 @@
+package util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads true-color Targa images, uncompressed or run-length encoded, as written by the Source
+ * engine when recording movies. ImageIO has no Targa support in Java 8.
+ */
+public class TgaReader {
+
+    private static final int HEADER_LENGTH = 18;
+    private static final int TYPE_TRUECOLOR = 2;
+    private static final int TYPE_TRUECOLOR_RLE = 10;
+
+    private TgaReader() {
+    }
+
+    /**
+     * Reads a Targa image.
+     *
+     * @param path the file to read
+     * @return the image, with an alpha channel only if the file has one
+     * @throws IOException if the file could not be read or is not a supported Targa image
+     */
+    public static BufferedImage read(Path path) throws IOException {
+        return read(Files.readAllBytes(path));
+    }
+
+    /**
+     * Decodes a Targa image.
+     *
+     * @param data the contents of a Targa file
+     * @return the image, with an alpha channel only if the data has one
+     * @throws IOException if the data is not a supported Targa image
+     */
+    public static BufferedImage read(byte[] data) throws IOException {
+        if (data.length < HEADER_LENGTH) {
+            throw new IOException("Not a TGA image: too short");
+        }
+        int idLength = data[0] & 0xff;
+        int colorMapType = data[1] & 0xff;
+        int imageType = data[2] & 0xff;
+        int colorMapLength = u16(data, 5);
+        int colorMapDepth = data[7] & 0xff;
+        int width = u16(data, 12);
+        int height = u16(data, 14);
+        int depth = data[16] & 0xff;
+        int descriptor = data[17] & 0xff;
+        validate(imageType, depth, width, height);
+        boolean alpha = depth == 32;
+        int bpp = depth / 8;
+        int offset = HEADER_LENGTH + idLength
+            + (colorMapType == 1 ? colorMapLength * ((colorMapDepth + 7) / 8) : 0);
+
+        BufferedImage image = new BufferedImage(width, height,
+            alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int count = width * height;
+        int[] decoded = new int[count];
+        try {
+            if (imageType == TYPE_TRUECOLOR) {
+                if (offset + count * bpp > data.length) {
+                    throw new IOException("Truncated TGA image");
+                }
+                for (int i = 0; i < count; i++, offset += bpp) {
+                    decoded[i] = pixel(data, offset, alpha);
+                }
+            } else {
+                int i = 0;
+                while (i < count) {
+                    int header = data[offset++] & 0xff;
+                    int run = (header & 0x7f) + 1;
+                    if (i + run > count) {
+                        throw new IOException("Corrupt TGA run length");
+                    }
+                    if ((header & 0x80) != 0) {
+                        int value = pixel(data, offset, alpha);
+                        offset += bpp;
+                        for (int j = 0; j < run; j++) {
+                            decoded[i++] = value;
+                        }
+                    } else {
+                        for (int j = 0; j < run; j++, offset += bpp) {
+                            decoded[i++] = pixel(data, offset, alpha);
+                        }
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated TGA image");
+        }
+
+        boolean rightToLeft = (descriptor & 0x10) != 0;
+        boolean topToBottom = (descriptor & 0x20) != 0;
+        for (int y = 0; y < height; y++) {
+            int src = y * width;
+            int dst = (topToBottom ? y : height - 1 - y) * width;
+            if (rightToLeft) {
+                for (int x = 0; x < width; x++) {
+                    pixels[dst + width - 1 - x] = decoded[src + x];
+                }
+            } else {
+                System.arraycopy(decoded, src, pixels, dst, width);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Reads a reduced copy of a Targa image, keeping every n-th pixel of every n-th row. Rows that
+     * are not kept are skipped when the image is not compressed, and the full size image is never
+     * held in memory.
+     *
+     * @param path     the file to read
+     * @param minWidth the minimum width of the result, n is the largest value that keeps it
+     * @return the reduced image
+     * @throws IOException if the file could not be read or is not a supported Targa image
+     */
+    public static BufferedImage readSubsampled(Path path, int minWidth) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            byte[] data = new byte[HEADER_LENGTH];
+            readFully(in, data);
+            int idLength = data[0] & 0xff;
+            int colorMapType = data[1] & 0xff;
+            int imageType = data[2] & 0xff;
+            int colorMapLength = u16(data, 5);
+            int colorMapDepth = data[7] & 0xff;
+            int width = u16(data, 12);
+            int height = u16(data, 14);
+            int depth = data[16] & 0xff;
+            int descriptor = data[17] & 0xff;
+            validate(imageType, depth, width, height);
+            boolean alpha = depth == 32;
+            int bpp = depth / 8;
+            boolean rightToLeft = (descriptor & 0x10) != 0;
+            boolean topToBottom = (descriptor & 0x20) != 0;
+            skipFully(in, idLength + (colorMapType == 1 ? colorMapLength * ((colorMapDepth + 7) / 8) : 0));
+
+            int step = Math.max(1, width / Math.max(1, minWidth));
+            int outWidth = (width + step - 1) / step;
+            int outHeight = (height + step - 1) / step;
+            BufferedImage image = new BufferedImage(outWidth, outHeight,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            byte[] row = new byte[width * bpp];
+            byte[] packet = new byte[bpp];
+            int run = 0;
+            boolean repeat = false;
+            for (int r = 0; r < height; r++) {
+                int y = topToBottom ? r : height - 1 - r;
+                boolean kept = y % step == 0;
+                if (imageType == TYPE_TRUECOLOR) {
+                    if (!kept) {
+                        skipFully(in, row.length);
+                        continue;
+                    }
+                    readFully(in, row);
+                } else {
+                    // runs may cross row boundaries, so every row is decoded
+                    for (int x = 0; x < width; x++) {
+                        if (run == 0) {
+                            int header = in.read();
+                            if (header < 0) {
+                                throw new IOException("Truncated TGA image");
+                            }
+                            run = (header & 0x7f) + 1;
+                            repeat = (header & 0x80) != 0;
+                            if (repeat) {
+                                readFully(in, packet);
+                            }
+                        }
+                        if (!repeat) {
+                            readFully(in, packet);
+                        }
+                        System.arraycopy(packet, 0, row, x * bpp, bpp);
+                        run--;
+                    }
+                    if (!kept) {
+                        continue;
+                    }
+                }
+                int dst = (y / step) * outWidth;
+                for (int x = 0; x < width; x += step) {
+                    int src = rightToLeft ? width - 1 - x : x;
+                    pixels[dst + x / step] = pixel(row, src * bpp, alpha);
+                }
+            }
+            return image;
+        }
+    }
+
+    private static void validate(int imageType, int depth, int width, int height) throws IOException {
+        if (imageType != TYPE_TRUECOLOR && imageType != TYPE_TRUECOLOR_RLE) {
+            throw new IOException("Unsupported TGA image type: " + imageType);
+        }
+        if (depth != 24 && depth != 32) {
+            throw new IOException("Unsupported TGA pixel depth: " + depth);
+        }
+        if (width == 0 || height == 0) {
+            throw new IOException("Invalid TGA size: " + width + "x" + height);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException {
+        int done = 0;
+        while (done < buf.length) {
+            int n = in.read(buf, done, buf.length - done);
+            if (n < 0) {
+                throw new IOException("Truncated TGA image");
+            }
+            done += n;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long n = in.skip(count);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Truncated TGA image");
+                }
+                n = 1;
+            }
+            count -= n;
+        }
+    }
+
+    private static int u16(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+    }
+
+    private static int pixel(byte[] data, int offset, boolean alpha) {
+        int b = data[offset] & 0xff;
+        int g = data[offset + 1] & 0xff;
+        int r = data[offset + 2] & 0xff;
+        int a = alpha ? data[offset + 3] & 0xff : 0xff;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+}
@@ -111,7 +111,7 @@ public abstract class WatchDir {
                 Path name = ev.context();
                 final Path child = dir.resolve(name);
                 log.finer("[watchdir] " + event.kind().name() + ": " + child);
-                SwingUtilities.invokeLater(() -> {
+                dispatch(() -> {
                     if (kind == ENTRY_CREATE) {
                         entryCreated(child);
                     } else if (kind == ENTRY_MODIFY) {
@@ -139,6 +139,17 @@ public abstract class WatchDir {
         }
     }
 
+    /**
+     * Runs the handler of an event. Events are handled on the event dispatch thread by default,
+     * subclasses that don't touch the user interface can override this to handle them directly on
+     * the watching thread.
+     *
+     * @param event the handler to run
+     */
+    protected void dispatch(Runnable event) {
+        SwingUtilities.invokeLater(event);
+    }
+
     public abstract void entryDeleted(Path child);
 
     public abstract void entryModified(Path child);
@@ -0,0 +1,194 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The layout of a RIFF WAVE file: its format and the position of its sample data. Only the headers
+ * are read, the samples are left on disk so they can be copied directly between files.
+ * <p>
+ * Files left behind by a crashed recording often have an empty or oversized data chunk size, in
+ * that case the data is assumed to extend to the end of the file.
+ */
+public class WavFile {
+
+    private static final int RIFF = 0x46464952; // "RIFF" little endian
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746d66;
+    private static final int DATA = 0x61746164;
+
+    private final Path path;
+    private final byte[] format;
+    private final long dataOffset;
+    private final long dataLength;
+
+    private WavFile(Path path, byte[] format, long dataOffset, long dataLength) {
+        this.path = path;
+        this.format = format;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Reads the headers of a WAV file.
+     *
+     * @param path the file to read
+     * @return the layout of the file
+     * @throws IOException if the file could not be read or is not a valid WAV file
+     */
+    public static WavFile read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buf = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, buf, 0);
+            if (buf.getInt(0) != RIFF || buf.getInt(8) != WAVE) {
+                throw new IOException("Not a WAV file: " + path);
+            }
+            byte[] format = null;
+            long position = 12;
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (position + 8 <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                int id = header.getInt(0);
+                long length = header.getInt(4) & 0xffffffffL;
+                position += 8;
+                if (id == FMT) {
+                    if (length < 16 || length > 1024) {
+                        throw new IOException("Invalid WAV format chunk: " + path);
+                    }
+                    ByteBuffer fmt = ByteBuffer.allocate((int) length);
+                    readFully(channel, fmt, position);
+                    format = fmt.array();
+                } else if (id == DATA) {
+                    if (format == null) {
+                        throw new IOException("WAV data before format chunk: " + path);
+                    }
+                    long available = size - position;
+                    if (length == 0 || length > available) {
+                        // the sizes are only written when the recording stops
+                        length = available;
+                    }
+                    int blockAlign = Math.max(1, (format[12] & 0xff) | (format[13] & 0xff) << 8);
+                    // drop a partial sample frame at the end of a damaged file
+                    return new WavFile(path, format, position, length - length % blockAlign);
+                }
+                position += length + (length & 1);
+            }
+            throw new IOException("WAV file has no data: " + path);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of WAV file");
+            }
+        }
+        buf.flip();
+    }
+
+    private int u16(int offset) {
+        return (format[offset] & 0xff) | (format[offset + 1] & 0xff) << 8;
+    }
+
+    private int u32(int offset) {
+        return ByteBuffer.wrap(format, offset, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    /**
+     * Creates the headers of a WAV file holding the given amount of sample data in this format.
+     *
+     * @param dataLength the size of the sample data, in bytes
+     * @return the RIFF, format and data chunk headers
+     * @throws IOException if the data is too large for a WAV file
+     */
+    public ByteBuffer header(long dataLength) throws IOException {
+        long riffLength = 4 + 8 + format.length + 8 + dataLength;
+        if (riffLength > 0xffffffffL) {
+            throw new IOException("Audio is too large for a WAV file: " + dataLength + " bytes");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(12 + 8 + format.length + 8).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(RIFF).putInt((int) riffLength).putInt(WAVE);
+        buf.putInt(FMT).putInt(format.length).put(format);
+        buf.putInt(DATA).putInt((int) dataLength);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @param other another WAV file
+     * @return <code>true</code> if the samples of both files can be joined without conversion
+     */
+    public boolean isCompatible(WavFile other) {
+        return getAudioFormat() == other.getAudioFormat() && getChannels() == other.getChannels()
+            && getSampleRate() == other.getSampleRate() && getBitsPerSample() == other.getBitsPerSample()
+            && getBlockAlign() == other.getBlockAlign()
+            && (format.length <= 16 || other.format.length <= 16 || Arrays.equals(format, other.format));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getAudioFormat() {
+        return u16(0);
+    }
+
+    public int getChannels() {
+        return u16(2);
+    }
+
+    public int getSampleRate() {
+        return u32(4);
+    }
+
+    public int getBlockAlign() {
+        return Math.max(1, u16(12));
+    }
+
+    public int getBitsPerSample() {
+        return u16(14);
+    }
+
+    /**
+     * @return the position of the first sample in the file
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * @return the size of the sample data, in bytes
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return the number of samples per channel
+     */
+    public long getSampleCount() {
+        return dataLength / getBlockAlign();
+    }
+
+    /**
+     * @return the duration of the audio, in seconds
+     */
+    public double getSeconds() {
+        return (double) getSampleCount() / getSampleRate();
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName() + ": " + getChannels() + " ch, " + getSampleRate() + " Hz, "
+            + getBitsPerSample() + " bit, " + getSampleCount() + " samples";
+    }
+
+}
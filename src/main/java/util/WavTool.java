@@ -0,0 +1,161 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Joins and cuts the audio of recorded segments without decoding it. Only the headers are
+ * rewritten, the samples are copied between files with {@link FileChannel#transferTo}, which lets
+ * the operating system move the data without passing it through the JVM.
+ * <p>
+ * When a framerate is given, cuts are placed on video frame boundaries. Frame positions are
+ * computed from the start of the output, so rounding to whole samples never accumulates across
+ * segments.
+ */
+public class WavTool {
+
+    private static final Logger log = Logger.getLogger("lawena");
+
+    private WavTool() {
+    }
+
+    /**
+     * @return the first sample of a video frame, rounded to the nearest sample
+     */
+    static long frameSample(long frame, int sampleRate, int fps) {
+        return (frame * sampleRate * 2 + fps) / (2L * fps);
+    }
+
+    /**
+     * Concatenates WAV files with the same format.
+     *
+     * @param inputs the files to join, in order
+     * @param output the file to write
+     * @param fps    the video framerate to cut each input to a whole number of frames, or 0 to
+     *               keep all samples
+     * @return the number of samples per channel written
+     * @throws IOException if an input is not valid or the formats don't match
+     */
+    public static long concat(List<Path> inputs, Path output, int fps) throws IOException {
+        if (inputs.isEmpty()) {
+            throw new IOException("Nothing to concatenate");
+        }
+        List<WavFile> wavs = new ArrayList<>();
+        for (Path input : inputs) {
+            WavFile wav = WavFile.read(input);
+            if (!wavs.isEmpty() && !wavs.get(0).isCompatible(wav)) {
+                throw new IOException("Incompatible audio format: " + wav + ", expected " + wavs.get(0));
+            }
+            wavs.add(wav);
+        }
+        WavFile first = wavs.get(0);
+        int rate = first.getSampleRate();
+        int block = first.getBlockAlign();
+
+        // samples taken from each input, aligned to frames from the start of the output
+        long[] lengths = new long[wavs.size()];
+        long frames = 0;
+        long total = 0;
+        for (int i = 0; i < wavs.size(); i++) {
+            long samples = wavs.get(i).getSampleCount();
+            if (fps > 0) {
+                long start = frameSample(frames, rate, fps);
+                frames += samples * fps / rate;
+                samples = frameSample(frames, rate, fps) - start;
+            }
+            lengths[i] = samples;
+            total += samples;
+        }
+
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, first.header(total * block));
+            for (int i = 0; i < wavs.size(); i++) {
+                WavFile wav = wavs.get(i);
+                long bytes = lengths[i] * block;
+                long copied = Math.min(bytes, wav.getDataLength());
+                copy(wav, wav.getDataOffset(), copied, out);
+                if (copied < bytes) {
+                    silence(first, bytes - copied, out);
+                }
+            }
+        }
+        log.fine("Concatenated " + wavs.size() + " WAV files into " + output + ": " + total + " samples");
+        return total;
+    }
+
+    /**
+     * Copies part of a WAV file.
+     *
+     * @param input      the file to cut
+     * @param output     the file to write
+     * @param fps        the video framerate
+     * @param startFrame the first video frame to keep
+     * @param endFrame   the frame after the last one to keep, or -1 to keep until the end
+     * @return the number of samples per channel written
+     * @throws IOException if the input is not valid or the range is empty
+     */
+    public static long trim(Path input, Path output, int fps, long startFrame, long endFrame)
+        throws IOException {
+        if (fps <= 0) {
+            throw new IOException("Invalid framerate: " + fps);
+        }
+        WavFile wav = WavFile.read(input);
+        int rate = wav.getSampleRate();
+        long start = Math.min(frameSample(startFrame, rate, fps), wav.getSampleCount());
+        long end = endFrame < 0 ? wav.getSampleCount()
+            : Math.min(frameSample(endFrame, rate, fps), wav.getSampleCount());
+        if (end <= start) {
+            throw new IOException("No audio between frames " + startFrame + " and " + endFrame);
+        }
+        int block = wav.getBlockAlign();
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, wav.header((end - start) * block));
+            copy(wav, wav.getDataOffset() + start * block, (end - start) * block, out);
+        }
+        return end - start;
+    }
+
+    private static void copy(WavFile wav, long position, long count, FileChannel out)
+        throws IOException {
+        try (FileChannel in = FileChannel.open(wav.getPath(), StandardOpenOption.READ)) {
+            long done = 0;
+            while (done < count) {
+                long n = in.transferTo(position + done, count - done, out);
+                if (n <= 0) {
+                    throw new IOException("Unexpected end of " + wav.getPath());
+                }
+                done += n;
+            }
+        }
+    }
+
+    private static void silence(WavFile format, long bytes, FileChannel out) throws IOException {
+        // 8 bit PCM is unsigned, so silence is the middle value
+        byte value = format.getBitsPerSample() == 8 ? (byte) 0x80 : 0;
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(bytes, 64 * 1024));
+        while (bytes > 0) {
+            buf.clear();
+            buf.limit((int) Math.min(bytes, buf.capacity()));
+            for (int i = 0; i < buf.limit(); i++) {
+                buf.put(i, value);
+            }
+            bytes -= buf.limit();
+            write(out, buf);
+        }
+    }
+
+    private static void write(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+}
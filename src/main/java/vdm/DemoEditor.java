@@ -4,7 +4,8 @@ import lwrt.CommandLine;
 import lwrt.SettingsManager;
 import lwrt.SettingsManager.Key;
 import ui.DemoEditorView;
-import util.DemoPreview;
+import util.DemoCatalog;
+import util.DemoScanner;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -17,6 +18,8 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
@@ -28,11 +31,14 @@ public class DemoEditor {
     private static final Logger status = Logger.getLogger("status");
     private DemoEditorView view;
     private JFileChooser choosedemo = new JFileChooser();
+    private JFileChooser chooseevents = new JFileChooser();
     private TickTableModel model;
     private SettingsManager settings;
     private CommandLine cl;
     private VDMGenerator vdmgenerator;
     private File currentDemoFile;
+    private DemoCatalog catalog = new DemoCatalog(Paths.get("demos.lwc"));
+    private ScanDemosTask scanDemosTask = null;
 
     public DemoEditor(SettingsManager settings, CommandLine cl) {
         this.settings = settings;
@@ -41,17 +47,41 @@ public class DemoEditor {
         choosedemo.setFileSelectionMode(JFileChooser.FILES_ONLY);
         choosedemo.setFileFilter(new FileNameExtensionFilter("Demo files", "DEM"));
         choosedemo.setCurrentDirectory(settings.getTfPath().toFile());
+        chooseevents.setDialogTitle("Choose events files or demos to import");
+        chooseevents.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        chooseevents.setMultiSelectionEnabled(true);
+        chooseevents.setFileFilter(new FileNameExtensionFilter("Events and demo files", "TXT", "DEM"));
+        chooseevents.setCurrentDirectory(settings.getTfPath().toFile());
 
         model = new TickTableModel();
     }
 
+    /**
+     * Copies the segments in the editor so they can be used from another thread. Must be called
+     * from the event dispatch thread, where the segments are edited.
+     *
+     * @return the segments as they are now
+     */
+    public Plan getPlan() {
+        List<Tick> ticks = new ArrayList<>();
+        for (Tick tick : model.getTickList()) {
+            Tick copy = new Tick(tick.getDemoFile(), tick.getDemoname(), tick.getStart(), tick.getEnd());
+            copy.setType(tick.getType());
+            copy.setTemplate(tick.getTemplate());
+            ticks.add(copy);
+        }
+        return new Plan(ticks);
+    }
+
     private void updateDemoDetails() {
         new SwingWorker<String, Void>() {
 
             @Override
             protected String doInBackground() throws Exception {
-                try (DemoPreview dp = new DemoPreview(currentDemoFile.toPath())) {
-                    return dp.toString();
+                try {
+                    return catalog.get(currentDemoFile.toPath()).toString();
+                } finally {
+                    catalog.save();
                 }
             }
 
@@ -94,6 +124,11 @@ public class DemoEditor {
         view.getBtnAddExecRecord().addActionListener(
             new VdmAddTick(Tick.EXEC_RECORD_SEGMENT, Tick.CAM_IMPORT_TEMPLATE));
         view.getBtnBrowse().addActionListener(new VdmBrowseDemo());
+        view.getBtnImportEvents().addActionListener(e -> {
+            if (chooseevents.showOpenDialog(view) == JFileChooser.APPROVE_OPTION) {
+                new ImportEventsTask(chooseevents.getSelectedFiles()).execute();
+            }
+        });
         view.getBtnClearTickList().addActionListener(new VdmClearTicks());
         view.getBtnCreateVdmFiles().addActionListener(new VdmCreateFile());
         view.getBtnDeleteVdmFiles().addActionListener(e -> {
@@ -114,6 +149,17 @@ public class DemoEditor {
             }
         });
 
+        view.getBtnScanDemos().addActionListener(e -> {
+            if (scanDemosTask == null) {
+                scanDemosTask = new ScanDemosTask();
+                scanDemosTask.execute();
+            } else {
+                log.fine("Cancelling demo scan task");
+                status.info("Cancelling task");
+                scanDemosTask.cancel(true);
+            }
+        });
+
         String rawSkipMode = settings.getString(Key.VdmSkipMode);
         SkipMode skipMode = SkipMode.SKIP_AHEAD;
         try {
@@ -124,6 +170,9 @@ public class DemoEditor {
         view.getCmbSkipMode().setSelectedItem(skipMode);
         view.getCmbSkipMode().addActionListener(e -> settings.setString(Key.VdmSkipMode,
             ((SkipMode) view.getCmbSkipMode().getSelectedItem()).name()));
+        view.getChckbxCoalesce().setSelected(settings.getBoolean(Key.VdmCoalesceSegments));
+        view.getChckbxCoalesce().addActionListener(e -> settings.setBoolean(Key.VdmCoalesceSegments,
+            view.getChckbxCoalesce().isSelected()));
 
         return view;
     }
@@ -158,6 +207,10 @@ public class DemoEditor {
                         .toString(), tick1, tick2);
                 segment.setType(type);
                 segment.setTemplate(template);
+                Tick overlap = model.findOverlap(segment);
+                if (overlap != null) {
+                    status.info("Segment " + segment + " overlaps with " + overlap);
+                }
                 model.addTick(segment);
                 log.info("Adding segment: " + segment);
             } catch (NumberFormatException ex) {
@@ -198,12 +251,30 @@ public class DemoEditor {
 
     }
 
+    /**
+     * A copy of the segments in the editor, unaffected by later edits.
+     */
+    public class Plan {
+        private final List<Tick> ticks;
+
+        private Plan(List<Tick> ticks) {
+            this.ticks = ticks;
+        }
+
+        /**
+         * @return the length of the footage these segments will record, in seconds
+         */
+        public double getSeconds() {
+            return new VDMGenerator(ticks, settings, catalog).getRecordedSeconds();
+        }
+    }
+
     public class VdmCreateFile implements ActionListener {
 
         @Override
         public void actionPerformed(ActionEvent e) {
             if (model.getRowCount() > 0) {
-                vdmgenerator = new VDMGenerator(model.getTickList(), settings);
+                vdmgenerator = new VDMGenerator(model.getTickList(), settings, catalog);
                 try {
                     final List<Path> paths = vdmgenerator.generate();
                     status.info("Created " + paths.size() + (paths.size() == 1 ? " new file" : " new files"));
@@ -279,4 +350,118 @@ public class DemoEditor {
 
     }
 
+    public class ScanDemosTask extends SwingWorker<DemoScanner.Result, Integer> {
+
+        private volatile int total = 0;
+
+        public ScanDemosTask() {
+            view.getBtnScanDemos().setText("Stop Scanning");
+            view.getProgressScan().setValue(0);
+            view.getProgressScan().setIndeterminate(true);
+            view.getProgressScan().setVisible(true);
+            status.info("Searching for demo files...");
+        }
+
+        @Override
+        protected DemoScanner.Result doInBackground() throws Exception {
+            DemoScanner scanner = new DemoScanner(catalog, settings.getInt(Key.DemoScanThreads));
+            Path tfpath = settings.getTfPath();
+            scanner.addFolder(tfpath, 1);
+            scanner.addFolder(tfpath.resolve("demos"), Integer.MAX_VALUE);
+            if (currentDemoFile != null) {
+                scanner.addFolder(currentDemoFile.toPath().toAbsolutePath().getParent(), 1);
+            }
+            return scanner.scan((scanned, total) -> {
+                this.total = total;
+                publish(scanned);
+            });
+        }
+
+        @Override
+        protected void process(List<Integer> chunks) {
+            int scanned = chunks.get(chunks.size() - 1);
+            JProgressBar progress = view.getProgressScan();
+            progress.setIndeterminate(false);
+            progress.setMaximum(total);
+            progress.setValue(scanned);
+            status.info("Scanning demos: " + scanned + " of " + total);
+        }
+
+        @Override
+        protected void done() {
+            scanDemosTask = null;
+            view.getBtnScanDemos().setText("Scan Demos");
+            view.getProgressScan().setVisible(false);
+            if (isCancelled()) {
+                status.info("Demo scan cancelled");
+                return;
+            }
+            try {
+                DemoScanner.Result result = get();
+                String str = "Demo scan finished: " + result.getTotal()
+                    + (result.getTotal() == 1 ? " demo found" : " demos found");
+                if (result.getFailed() > 0) {
+                    str += ", " + result.getFailed() + " could not be read";
+                }
+                log.fine(str + ", " + result.getRead() + " read, " + result.getCached() + " already cataloged");
+                status.info(str);
+            } catch (InterruptedException | ExecutionException e) {
+                log.log(Level.INFO, "Problem while scanning demos", e);
+                status.info("Problem occurred while scanning demos");
+            }
+        }
+
+    }
+
+    public class ImportEventsTask extends SwingWorker<List<Tick>, Void> {
+
+        private final File[] files;
+        private int skipped = 0;
+
+        public ImportEventsTask(File[] files) {
+            this.files = files;
+            view.getBtnImportEvents().setEnabled(false);
+            status.info("Importing events...");
+        }
+
+        @Override
+        protected List<Tick> doInBackground() throws Exception {
+            EventsImporter importer = new EventsImporter(settings.getTfPath(),
+                settings.getInt(Key.VdmImportTicksBefore), settings.getInt(Key.VdmImportTicksAfter));
+            List<Tick> ticks = new ArrayList<>();
+            for (File file : files) {
+                try {
+                    if (file.getName().toLowerCase().endsWith(".dem")) {
+                        ticks.addAll(importer.importBookmarks(file.toPath()));
+                    } else {
+                        ticks.addAll(importer.importEvents(file.toPath()));
+                    }
+                } catch (IOException e) {
+                    log.log(Level.INFO, "Could not import events from " + file, e);
+                }
+            }
+            skipped = importer.getSkipped();
+            return ticks;
+        }
+
+        @Override
+        protected void done() {
+            view.getBtnImportEvents().setEnabled(true);
+            try {
+                List<Tick> ticks = get();
+                model.addTicks(ticks);
+                String str = "Imported " + ticks.size() + (ticks.size() == 1 ? " segment" : " segments");
+                if (skipped > 0) {
+                    str += ", " + skipped + (skipped == 1 ? " event" : " events") + " skipped (demo not found)";
+                }
+                log.info(str);
+                status.info(str);
+            } catch (InterruptedException | ExecutionException e) {
+                log.log(Level.INFO, "Problem while importing events", e);
+                status.info("Problem occurred while importing events");
+            }
+        }
+
+    }
+
 }
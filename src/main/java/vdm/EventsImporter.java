@@ -0,0 +1,136 @@
+package vdm;
+
+import util.DemoReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Creates record segments from the bookmarks and killstreaks logged by TF2, either from an
+ * <code>_events.txt</code> file or from the <code>ds_mark</code> commands embedded in a demo. Each
+ * event becomes a segment padded with a number of ticks before and after it.
+ */
+class EventsImporter {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    // [2015/01/25 20:41] Kill Streak 3 ("20150125_203952" at 2349)
+    private static final Pattern EVENT_LINE =
+        Pattern.compile("^\\[[^\\]]*\\]\\s*(.*?)\\s*\\(\"(.+)\" at (\\d+)\\)\\s*$");
+    private static final String BOOKMARK_COMMAND = "ds_mark";
+
+    private final Path tfpath;
+    private final int ticksBefore;
+    private final int ticksAfter;
+    private final Map<String, File> demoFiles = new HashMap<>();
+    private int skipped = 0;
+
+    /**
+     * @param tfpath      the TF2 game folder, used to resolve demo names
+     * @param ticksBefore the number of ticks to record before each event
+     * @param ticksAfter  the number of ticks to record after each event
+     */
+    public EventsImporter(Path tfpath, int ticksBefore, int ticksAfter) {
+        this.tfpath = tfpath.toAbsolutePath();
+        this.ticksBefore = ticksBefore;
+        this.ticksAfter = ticksAfter;
+    }
+
+    /**
+     * Parses an events file, creating a segment for every event whose demo can be found next to the
+     * events file, in the <code>demos</code> folder or in the TF2 folder.
+     *
+     * @param eventsFile the events file, usually <code>_events.txt</code>
+     * @return the segments, in the order they appear in the file and without duplicates
+     * @throws IOException if the file could not be read
+     */
+    public List<Tick> importEvents(Path eventsFile) throws IOException {
+        Set<Tick> ticks = new LinkedHashSet<>();
+        Path dir = eventsFile.toAbsolutePath().getParent();
+        try (BufferedReader reader = Files.newBufferedReader(eventsFile, Charset.defaultCharset())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher m = EVENT_LINE.matcher(line);
+                if (!m.matches()) {
+                    // session separators and blank lines
+                    continue;
+                }
+                File demo = findDemo(dir, m.group(2));
+                if (demo == null) {
+                    skipped++;
+                    continue;
+                }
+                ticks.add(newTick(demo, Integer.parseInt(m.group(3))));
+            }
+        }
+        log.fine("Imported " + ticks.size() + " segments from " + eventsFile);
+        return new ArrayList<>(ticks);
+    }
+
+    /**
+     * Reads a demo looking for bookmark commands, creating a segment for each of them.
+     *
+     * @param demo the demo file
+     * @return the segments, ordered by tick and without duplicates
+     * @throws IOException if the demo could not be read
+     */
+    public List<Tick> importBookmarks(Path demo) throws IOException {
+        Set<Tick> ticks = new LinkedHashSet<>();
+        File file = demo.toAbsolutePath().toFile();
+        try (DemoReader reader = new DemoReader(demo)) {
+            while (reader.next()) {
+                if (reader.getCommand() == DemoReader.Command.CONSOLECMD) {
+                    String cmd = reader.getConsoleCommand().trim();
+                    if (cmd.startsWith(BOOKMARK_COMMAND)) {
+                        ticks.add(newTick(file, reader.getTick()));
+                    }
+                }
+            }
+        }
+        log.fine("Imported " + ticks.size() + " bookmarks from " + demo);
+        return new ArrayList<>(ticks);
+    }
+
+    /**
+     * @return the number of events skipped so far because their demo could not be found
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    private Tick newTick(File demo, int tick) {
+        Tick segment = new Tick(demo, tfpath.relativize(demo.toPath().toAbsolutePath()).toString(),
+            Math.max(0, tick - ticksBefore), tick + Math.max(1, ticksAfter));
+        segment.setType(Tick.RECORD_SEGMENT);
+        segment.setTemplate(Tick.NO_TEMPLATE);
+        return segment;
+    }
+
+    private File findDemo(Path dir, String name) {
+        if (demoFiles.containsKey(name)) {
+            return demoFiles.get(name);
+        }
+        String filename = name.endsWith(".dem") ? name : name + ".dem";
+        File found = null;
+        for (Path candidate : Arrays.asList(dir, tfpath.resolve("demos"), tfpath)) {
+            Path path = candidate.resolve(filename);
+            if (Files.exists(path)) {
+                found = path.toAbsolutePath().toFile();
+                break;
+            }
+        }
+        if (found == null) {
+            log.fine("Could not find demo " + filename + ", skipping its events");
+        }
+        demoFiles.put(name, found);
+        return found;
+    }
+
+}
@@ -4,7 +4,8 @@ public enum SkipMode {
 
     SKIP_AHEAD("Standard: Use SkipAhead VDM factory"), NO_SKIPS(
         "No tick skipping (older SrcDemo\u00B2 workaround)"), DEMO_TIMESCALE(
-        "Run demo_timescale before each segment");
+        "Run demo_timescale before each segment"), AUTO(
+        "Automatic: pick the fastest skip for each gap");
 
     private String description;
 
@@ -0,0 +1,131 @@
+package vdm;
+
+import lwrt.SettingsManager;
+import lwrt.SettingsManager.Key;
+
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses how to skip each gap between recorded segments when using {@link SkipMode#AUTO}. A
+ * SkipAhead reloads the demo from the nearest snapshot and costs about the same regardless of the
+ * distance, while fast-forwarding with <code>demo_timescale</code> costs time proportional to the
+ * length of the gap. Both costs can be calibrated from measured timings and are kept in the
+ * settings.
+ */
+public class SkipPlanner {
+
+    private static final Logger log = Logger.getLogger("lawena");
+    private static final Pattern NUMBER = Pattern.compile("(\\d+(\\.\\d+)?)\\s*$");
+    /**
+     * Weight of a new measurement when calibrating, older measurements decay exponentially.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    private final double skipAheadSeconds;
+    private final double timescale;
+
+    /**
+     * @param skipAheadSeconds the time taken by a SkipAhead, in seconds
+     * @param timescale        the effective speed-up while fast-forwarding
+     */
+    public SkipPlanner(double skipAheadSeconds, double timescale) {
+        this.skipAheadSeconds = skipAheadSeconds;
+        this.timescale = Math.max(1, timescale);
+    }
+
+    /**
+     * Creates a planner using the calibrated costs and the configured skip command.
+     *
+     * @param cfg the settings to read from
+     * @return the planner
+     */
+    public static SkipPlanner fromSettings(SettingsManager cfg) {
+        double efficiency = cfg.getInt(Key.VdmTimescaleEfficiency) / 100.0;
+        return new SkipPlanner(cfg.getInt(Key.VdmSkipAheadMillis) / 1000.0,
+            nominalTimescale(cfg) * efficiency);
+    }
+
+    /**
+     * @return the timescale set by the skip start command, or 1 if it can't be determined
+     */
+    static double nominalTimescale(SettingsManager cfg) {
+        Matcher m = NUMBER.matcher(cfg.getString(Key.VdmSkipStartCommand));
+        if (m.find()) {
+            try {
+                return Math.max(1, Double.parseDouble(m.group(1)));
+            } catch (NumberFormatException e) {
+                log.fine("Invalid timescale in skip start command: " + m.group(1));
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Updates the SkipAhead cost with a measured timing.
+     *
+     * @param cfg    the settings to update
+     * @param millis the time a SkipAhead took, in milliseconds
+     */
+    public static void calibrateSkipAhead(SettingsManager cfg, long millis) {
+        int previous = cfg.getInt(Key.VdmSkipAheadMillis);
+        int value = (int) Math.round(previous + SMOOTHING * (millis - previous));
+        cfg.setInt(Key.VdmSkipAheadMillis, Math.max(0, value));
+        log.fine("SkipAhead cost calibrated: " + previous + " -> " + value + " ms");
+    }
+
+    /**
+     * Updates the fast-forward efficiency with a measured timing.
+     *
+     * @param cfg          the settings to update
+     * @param ticks        the number of ticks that were skipped
+     * @param tickInterval the tick interval of the demo, in seconds
+     * @param millis       the time fast-forwarding took, in milliseconds
+     */
+    public static void calibrateTimescale(SettingsManager cfg, int ticks, double tickInterval,
+                                          long millis) {
+        if (millis <= 0 || ticks <= 0) {
+            return;
+        }
+        double ideal = ticks * tickInterval / nominalTimescale(cfg);
+        double measured = 100 * ideal / (millis / 1000.0);
+        int previous = cfg.getInt(Key.VdmTimescaleEfficiency);
+        int value = (int) Math.round(previous + SMOOTHING * (measured - previous));
+        cfg.setInt(Key.VdmTimescaleEfficiency, Math.min(100, Math.max(1, value)));
+        log.fine("Timescale efficiency calibrated: " + previous + " -> " + value + "%");
+    }
+
+    /**
+     * @return the estimated time to skip the gap with a SkipAhead, in seconds
+     */
+    public double skipAheadCost() {
+        return skipAheadSeconds;
+    }
+
+    /**
+     * @param ticks        the length of the gap in ticks
+     * @param tickInterval the tick interval of the demo, in seconds
+     * @return the estimated time to fast-forward through the gap, in seconds
+     */
+    public double timescaleCost(int ticks, double tickInterval) {
+        return ticks * tickInterval / timescale;
+    }
+
+    /**
+     * Picks the cheaper way to skip a gap.
+     *
+     * @param ticks        the length of the gap in ticks
+     * @param tickInterval the tick interval of the demo, in seconds
+     * @return {@link SkipMode#SKIP_AHEAD}, {@link SkipMode#DEMO_TIMESCALE}, or
+     * {@link SkipMode#NO_SKIPS} if there is nothing to skip
+     */
+    public SkipMode choose(int ticks, double tickInterval) {
+        if (ticks <= 0) {
+            return SkipMode.NO_SKIPS;
+        }
+        return timescaleCost(ticks, tickInterval) < skipAheadCost() ? SkipMode.DEMO_TIMESCALE
+            : SkipMode.SKIP_AHEAD;
+    }
+
+}
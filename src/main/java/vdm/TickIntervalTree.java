@@ -0,0 +1,172 @@
+package vdm;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Interval index over the ticks of a single demo, used to find overlapping segments in logarithmic
+ * time. Implemented as a treap ordered by starting tick where every node also tracks the largest
+ * ending tick of its subtree.
+ * <p>
+ * Ticks are mutable, so a tick must be removed before changing its start or end and inserted again
+ * afterwards.
+ */
+class TickIntervalTree {
+
+    private final Map<Tick, Node> nodes = new IdentityHashMap<>();
+    private Node root;
+    private long sequence = 0;
+
+    private static int maxEnd(Node node) {
+        return node == null ? Integer.MIN_VALUE : node.maxEnd;
+    }
+
+    private static void update(Node node) {
+        node.maxEnd = Math.max(node.end, Math.max(maxEnd(node.left), maxEnd(node.right)));
+    }
+
+    private static int compare(Node a, Node b) {
+        int c = Integer.compare(a.start, b.start);
+        return c != 0 ? c : Long.compare(a.id, b.id);
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static Node insert(Node root, Node node) {
+        if (root == null) {
+            return node;
+        }
+        if (compare(node, root) < 0) {
+            root.left = insert(root.left, node);
+            if (root.left.priority > root.priority) {
+                root = rotateRight(root);
+            }
+        } else {
+            root.right = insert(root.right, node);
+            if (root.right.priority > root.priority) {
+                root = rotateLeft(root);
+            }
+        }
+        update(root);
+        return root;
+    }
+
+    private static Node remove(Node root, Node node) {
+        if (root == null) {
+            return null;
+        }
+        int c = compare(node, root);
+        if (c < 0) {
+            root.left = remove(root.left, node);
+        } else if (c > 0) {
+            root.right = remove(root.right, node);
+        } else {
+            if (root.left == null) {
+                return root.right;
+            } else if (root.right == null) {
+                return root.left;
+            } else if (root.left.priority > root.right.priority) {
+                root = rotateRight(root);
+                root.right = remove(root.right, node);
+            } else {
+                root = rotateLeft(root);
+                root.left = remove(root.left, node);
+            }
+        }
+        update(root);
+        return root;
+    }
+
+    /**
+     * Adds a tick to this index using its current start and end.
+     *
+     * @param tick the tick to add
+     */
+    public void add(Tick tick) {
+        if (nodes.containsKey(tick)) {
+            return;
+        }
+        Node node = new Node(tick, sequence++);
+        nodes.put(tick, node);
+        root = insert(root, node);
+    }
+
+    /**
+     * Removes a tick from this index, using the start and end it had when it was added.
+     *
+     * @param tick the tick to remove
+     */
+    public void remove(Tick tick) {
+        Node node = nodes.remove(tick);
+        if (node != null) {
+            root = remove(root, node);
+        }
+    }
+
+    /**
+     * Finds a tick whose interval intersects the given one. Both intervals include their ends.
+     *
+     * @param start the starting tick
+     * @param end   the ending tick
+     * @return one of the overlapping ticks, or <code>null</code> if there is none
+     */
+    public Tick findOverlap(int start, int end) {
+        Node node = root;
+        while (node != null) {
+            if (node.start <= end && node.end >= start) {
+                return node.tick;
+            }
+            if (node.left != null && node.left.maxEnd >= start) {
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    private static class Node {
+        private final Tick tick;
+        private final int start;
+        private final int end;
+        private final long id;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private int maxEnd;
+        private Node left;
+        private Node right;
+
+        Node(Tick tick, long id) {
+            this.tick = tick;
+            this.start = tick.getStart();
+            this.end = tick.getEnd();
+            this.id = id;
+            this.maxEnd = end;
+        }
+    }
+
+}
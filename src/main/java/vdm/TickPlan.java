@@ -0,0 +1,117 @@
+package vdm;
+
+import lwrt.SettingsManager;
+import util.DemoCatalog;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of segments to record, used to generate VDM files without the demo editor. A plan file has
+ * one segment per line with the following fields, separated by tabs or, when a line has no tabs, by
+ * whitespace:
+ * <pre>
+ * demo  start  end  [type  [template]]
+ * </pre>
+ * The demo is resolved against the TF2 folder, the type is either <code>record</code> (the default)
+ * or <code>exec_record</code>, and the template is the rest of the line. Blank lines and lines
+ * starting with <code>#</code> are ignored.
+ */
+public class TickPlan {
+
+    private final Path tfpath;
+    private final List<Tick> ticks = new ArrayList<>();
+
+    public TickPlan(Path tfpath) {
+        this.tfpath = tfpath.toAbsolutePath();
+    }
+
+    /**
+     * Reads a plan file.
+     *
+     * @param planFile the plan to read
+     * @param tfpath   the TF2 folder
+     * @return the plan
+     * @throws IOException              if the file could not be read
+     * @throws IllegalArgumentException if a line is not a valid segment, with its line number
+     */
+    public static TickPlan read(Path planFile, Path tfpath) throws IOException {
+        TickPlan plan = new TickPlan(tfpath);
+        try (BufferedReader reader = Files.newBufferedReader(planFile, Charset.forName("UTF-8"))) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.indexOf('\t') >= 0 ? trimmed.split("\t", 5) : trimmed.split("\\s+", 5);
+                if (fields.length < 3) {
+                    throw new IllegalArgumentException("Line " + number + ": expected demo, start and end");
+                }
+                try {
+                    plan.add(tfpath.resolve(fields[0].trim()), Integer.parseInt(fields[1].trim()),
+                        Integer.parseInt(fields[2].trim()), fields.length > 3 ? fields[3].trim() : null,
+                        fields.length > 4 ? fields[4] : null);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + number + ": " + e.getMessage());
+                }
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Adds a segment to this plan.
+     *
+     * @param demo     the demo file
+     * @param start    the starting tick
+     * @param end      the ending tick, greater than the start
+     * @param type     <code>record</code>, <code>exec_record</code> or <code>null</code> for a
+     *                 plain record segment
+     * @param template the template of an <code>exec_record</code> segment, can be <code>null</code>
+     * @throws IllegalArgumentException if the segment is not valid
+     */
+    public void add(Path demo, int start, int end, String type, String template) {
+        if (start < 0 || start >= end) {
+            throw new IllegalArgumentException("Invalid tick range " + start + "-" + end);
+        }
+        if (type == null || type.isEmpty()) {
+            type = Tick.RECORD_SEGMENT;
+        } else if (!type.equals(Tick.RECORD_SEGMENT) && !type.equals(Tick.EXEC_RECORD_SEGMENT)) {
+            throw new IllegalArgumentException("Unknown segment type: " + type);
+        }
+        Path path = demo.toAbsolutePath();
+        Tick tick = new Tick(path.toFile(), tfpath.relativize(path).toString(), start, end);
+        tick.setType(type);
+        if (type.equals(Tick.EXEC_RECORD_SEGMENT) && template != null && !template.isEmpty()) {
+            tick.setTemplate(template);
+        } else {
+            tick.setTemplate(Tick.NO_TEMPLATE);
+        }
+        ticks.add(tick);
+    }
+
+    public int size() {
+        return ticks.size();
+    }
+
+    /**
+     * Generates the VDM files of this plan, and the configs of its templates.
+     *
+     * @param cfg     the settings to use
+     * @param catalog the catalog used to look up demo details, can be <code>null</code>
+     * @return the generated files
+     * @throws IOException if a VDM file could not be written
+     */
+    public List<Path> generate(SettingsManager cfg, DemoCatalog catalog) throws IOException {
+        return new VDMGenerator(ticks, cfg, catalog).generate();
+    }
+
+}
@@ -2,7 +2,9 @@ package vdm;
 
 import javax.swing.table.AbstractTableModel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public class TickTableModel extends AbstractTableModel {
@@ -10,6 +12,7 @@ public class TickTableModel extends AbstractTableModel {
     private static final Logger log = Logger.getLogger("lawena");
     private static final long serialVersionUID = 1L;
     private List<Tick> list = new ArrayList<>();
+    private Map<String, TickIntervalTree> trees = new HashMap<>();
 
     @Override
     public int getRowCount() {
@@ -48,7 +51,10 @@ public class TickTableModel extends AbstractTableModel {
         switch (c) {
             case START:
                 try {
-                    tick.setStart(Integer.parseInt(aValue.toString()));
+                    int start = Integer.parseInt(aValue.toString());
+                    unindex(tick);
+                    tick.setStart(start);
+                    index(tick);
                     fireTableCellUpdated(rowIndex, columnIndex);
                 } catch (NumberFormatException e) {
                     log.fine("Cannot set start tick, bad numeric format in: " + aValue);
@@ -56,7 +62,10 @@ public class TickTableModel extends AbstractTableModel {
                 break;
             case END:
                 try {
-                    tick.setEnd(Integer.parseInt(aValue.toString()));
+                    int end = Integer.parseInt(aValue.toString());
+                    unindex(tick);
+                    tick.setEnd(end);
+                    index(tick);
                     fireTableCellUpdated(rowIndex, columnIndex);
                 } catch (NumberFormatException e) {
                     log.fine("Cannot set end tick, bad numeric format in: " + aValue);
@@ -106,10 +115,46 @@ public class TickTableModel extends AbstractTableModel {
         }
     }
 
+    private void index(Tick tick) {
+        trees.computeIfAbsent(tick.getDemoname(), k -> new TickIntervalTree()).add(tick);
+    }
+
+    private void unindex(Tick tick) {
+        TickIntervalTree tree = trees.get(tick.getDemoname());
+        if (tree != null) {
+            tree.remove(tick);
+            if (tree.isEmpty()) {
+                trees.remove(tick.getDemoname());
+            }
+        }
+    }
+
+    /**
+     * Finds a tick of the same demo whose range intersects the range of the given tick.
+     *
+     * @param tick the tick to check, usually one not yet added to this model
+     * @return an overlapping tick other than the given one, or <code>null</code> if there is none
+     */
+    public Tick findOverlap(Tick tick) {
+        TickIntervalTree tree = trees.get(tick.getDemoname());
+        if (tree == null) {
+            return null;
+        }
+        Tick found = tree.findOverlap(tick.getStart(), tick.getEnd());
+        if (found == tick) {
+            // look past the tick itself by checking it against the others
+            tree.remove(tick);
+            found = tree.findOverlap(tick.getStart(), tick.getEnd());
+            tree.add(tick);
+        }
+        return found;
+    }
+
     public void clear() {
         int rowsCleared = list.size();
         if (rowsCleared > 0) {
             list.clear();
+            trees.clear();
             fireTableRowsDeleted(0, rowsCleared - 1);
         }
     }
@@ -117,11 +162,26 @@ public class TickTableModel extends AbstractTableModel {
     public void addTick(Tick e) {
         int row = getRowCount();
         list.add(e);
+        index(e);
         fireTableRowsInserted(row, row);
     }
 
+    /**
+     * Appends many ticks at once, notifying listeners with a single event.
+     *
+     * @param ticks the ticks to add
+     */
+    public void addTicks(List<Tick> ticks) {
+        if (!ticks.isEmpty()) {
+            int row = getRowCount();
+            list.addAll(ticks);
+            ticks.forEach(this::index);
+            fireTableRowsInserted(row, row + ticks.size() - 1);
+        }
+    }
+
     public void removeTick(int index) {
-        list.remove(index);
+        unindex(list.remove(index));
         fireTableRowsDeleted(index, index);
     }
 
@@ -5,9 +5,12 @@ import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheFactory;
 import lwrt.SettingsManager;
 import lwrt.SettingsManager.Key;
+import util.DemoCatalog;
 import util.Util;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.StringReader;
 import java.io.Writer;
 import java.nio.charset.Charset;
@@ -15,6 +18,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,30 +29,94 @@ import java.util.logging.Logger;
 class VDMGenerator {
 
     private static final Logger log = Logger.getLogger("lawena");
+    private static final int MAX_CACHED_TEMPLATES = 64;
+    private static final double DEFAULT_TICK_INTERVAL = 0.015;
+    private static final MustacheFactory mustacheFactory = new DefaultMustacheFactory();
+    private static final Map<String, Mustache> templateCache =
+        new LinkedHashMap<String, Mustache>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, Mustache> eldest) {
+                return size() > MAX_CACHED_TEMPLATES;
+            }
+        };
 
     private List<Tick> ticklist;
     private SettingsManager cfg;
+    private int padding;
+    private String skipStart;
+    private String skipStop;
+    private SkipMode skipMode;
+    private SkipPlanner planner;
+    private DemoCatalog catalog;
 
     public VDMGenerator(List<Tick> ticklist, SettingsManager cfg) {
+        this(ticklist, cfg, null);
+    }
+
+    /**
+     * @param ticklist the segments to generate
+     * @param cfg      the settings
+     * @param catalog  the catalog used to look up the tick interval of each demo, can be
+     *                 <code>null</code> to assume the default interval
+     */
+    public VDMGenerator(List<Tick> ticklist, SettingsManager cfg, DemoCatalog catalog) {
         this.ticklist = ticklist;
         this.cfg = cfg;
+        this.catalog = catalog;
     }
 
-    private static String segment(int count, String factory, String name, String... args) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("\t\"" + count + "\"\n");
-        sb.append("\t{\n");
-        sb.append("\t\tfactory \"" + factory + "\"\n");
-        sb.append("\t\tname \"" + name + "\"\n");
+    private static void segment(BufferedWriter w, int count, String factory, String name, String... args)
+        throws IOException {
+        w.write("\t\"");
+        w.write(Integer.toString(count));
+        w.write("\"\n\t{\n\t\tfactory \"");
+        w.write(factory);
+        w.write("\"\n\t\tname \"");
+        w.write(name);
+        w.write("\"\n");
         for (String arg : args) {
-            sb.append("\t\t" + arg + "\n");
+            w.write("\t\t");
+            w.write(arg);
+            w.write("\n");
+        }
+        w.write("\t}");
+        w.newLine();
+    }
+
+    /**
+     * Returns the compiled form of a template, compiling it only if it was not used recently.
+     *
+     * @param template the template text
+     * @return the compiled template
+     */
+    private static Mustache compile(String template) {
+        synchronized (templateCache) {
+            Mustache mustache = templateCache.get(template);
+            if (mustache == null) {
+                mustache = mustacheFactory.compile(new StringReader(template), "template");
+                templateCache.put(template, mustache);
+            }
+            return mustache;
         }
-        sb.append("\t}");
-        return sb.toString();
+    }
+
+    private Map<String, Object> scopes(Tick tick, String demoCfgName) {
+        Map<String, Object> scopes = new HashMap<>();
+        scopes.put("TF_PATH", cfg.getTfPath().toAbsolutePath());
+        scopes.put("MOVIE_PATH", cfg.getMoviePath().toAbsolutePath());
+        scopes.put("DEMO_NAME", demoCfgName);
+        scopes.put("DEMO_PATH", tick.getDemoFile().getAbsoluteFile());
+        scopes.put("DEMO_PATH_NOEXT", cfg.getTfPath().toAbsolutePath().resolve(demoCfgName));
+        scopes.put("BVH_PATH", cfg.getTfPath().toAbsolutePath().resolve(demoCfgName + ".bvh"));
+        scopes.put("LAWENA_PATH", Paths.get("").toAbsolutePath());
+        scopes.put("NEW_LINE", "\n");
+        return Collections.unmodifiableMap(scopes);
     }
 
     public List<Path> generate() throws IOException {
-        List<Path> paths = new ArrayList<>();
         Map<String, List<Tick>> demomap = new LinkedHashMap<>();
         Map<String, String> peeknext = new LinkedHashMap<>();
         String previous = null;
@@ -66,36 +137,162 @@ class VDMGenerator {
             previous = tick.getDemoname();
         }
 
-        int cfgCount = 1;
-
-        int padding = cfg.getInt(Key.VdmTickPadding);
-        String skipStart = cfg.getString(Key.VdmSkipStartCommand);
-        String skipStop = cfg.getString(Key.VdmSkipStopCommand);
+        padding = cfg.getInt(Key.VdmTickPadding);
+        skipStart = cfg.getString(Key.VdmSkipStartCommand);
+        skipStop = cfg.getString(Key.VdmSkipStopCommand);
         String rawSkipMode = cfg.getString(Key.VdmSkipMode);
-        SkipMode skipMode = SkipMode.SKIP_AHEAD;
+        skipMode = SkipMode.SKIP_AHEAD;
         try {
             skipMode = SkipMode.valueOf(rawSkipMode);
         } catch (IllegalArgumentException ex) {
             log.warning("Invalid value detected for skip mode: " + rawSkipMode);
         }
+        planner = SkipPlanner.fromSettings(cfg);
 
+        if (cfg.getBoolean(Key.VdmCoalesceSegments)) {
+            int gap = cfg.getInt(Key.VdmCoalesceGap);
+            for (Entry<String, List<Tick>> e : demomap.entrySet()) {
+                e.setValue(coalesce(e.getValue(), gap));
+            }
+        }
+
+        // number the generated configs in plan order, regardless of which demo finishes first
+        Map<String, Integer> cfgStart = new HashMap<>();
+        int cfgCount = 1;
         for (Entry<String, List<Tick>> e : demomap.entrySet()) {
-            String demo = e.getKey();
-            log.finer("Creating VDM file for demo: " + demo);
-            List<String> lines = new ArrayList<>();
-            lines.add("demoactions\n{");
+            cfgStart.put(e.getKey(), cfgCount);
+            for (Tick tick : e.getValue()) {
+                if (tick.getType().equals(Tick.EXEC_RECORD_SEGMENT)) {
+                    cfgCount++;
+                }
+            }
+        }
+
+        List<Path> paths = new ArrayList<>();
+        if (demomap.isEmpty()) {
+            return paths;
+        }
+        int threads = Math.min(demomap.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Path>>> futures = new ArrayList<>();
+            for (Entry<String, List<Tick>> e : demomap.entrySet()) {
+                String demo = e.getKey();
+                futures.add(executor.submit(() -> generate(demo, e.getValue(), peeknext.get(demo),
+                    cfgStart.get(demo))));
+            }
+            for (Future<List<Path>> future : futures) {
+                paths.addAll(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("VDM generation was interrupted");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Could not generate VDM files", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (catalog != null) {
+                catalog.save();
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Sorts the ticks of a demo and merges the ones that overlap or would leave fewer than the given
+     * number of ticks to skip between them once padding is applied. Only segments with the same type
+     * and template are merged. The given ticks are not modified.
+     *
+     * @param ticks the ticks of a single demo
+     * @param gap   the smallest number of skipped ticks worth keeping two segments apart
+     * @return the merged ticks, sorted by starting tick
+     */
+    private List<Tick> coalesce(List<Tick> ticks, int gap) {
+        List<Tick> sorted = new ArrayList<>(ticks);
+        sorted.sort(Comparator.comparingInt(Tick::getStart));
+        List<Tick> merged = new ArrayList<>();
+        Tick current = null;
+        for (Tick tick : sorted) {
+            if (current != null && Objects.equals(current.getType(), tick.getType())
+                && Objects.equals(current.getTemplate(), tick.getTemplate())
+                && tick.getStart() - padding - current.getEnd() < gap) {
+                current.setEnd(Math.max(current.getEnd(), tick.getEnd()));
+            } else {
+                current = new Tick(tick.getDemoFile(), tick.getDemoname(), tick.getStart(), tick.getEnd());
+                current.setType(tick.getType());
+                current.setTemplate(tick.getTemplate());
+                merged.add(current);
+            }
+        }
+        if (merged.size() < ticks.size()) {
+            log.fine("Merged " + ticks.size() + " segments into " + merged.size() + " for "
+                + ticks.get(0).getDemoname());
+        }
+        return merged;
+    }
+
+    /**
+     * @return the length of the footage these segments will record, in seconds
+     */
+    public double getRecordedSeconds() {
+        double seconds = 0;
+        for (Tick tick : ticklist) {
+            seconds += (tick.getEnd() - tick.getStart()) * tickInterval(tick);
+        }
+        return seconds;
+    }
+
+    private double tickInterval(Tick tick) {
+        if (catalog != null) {
+            try {
+                double interval = catalog.get(tick.getDemoFile().toPath()).getTickInterval();
+                if (interval > 0) {
+                    return interval;
+                }
+            } catch (IOException e) {
+                log.fine("Could not read tick interval of " + tick.getDemoname() + ": " + e);
+            }
+        }
+        return DEFAULT_TICK_INTERVAL;
+    }
+
+    /**
+     * Writes the VDM file of a single demo, along with the configs generated from its templates.
+     *
+     * @return the generated configs followed by the VDM file
+     */
+    private List<Path> generate(String demo, List<Tick> ticks, String nextdemo, int cfgCount)
+        throws IOException {
+        List<Path> paths = new ArrayList<>();
+        log.finer("Creating VDM file for demo: " + demo);
+        // TODO: check for potential bugs for demos located in folders other than TF dir
+        Path vdm = cfg.getTfPath().resolve(Util.stripFilenameExtension(demo.replace("\\", "/")) + ".vdm");
+        try (BufferedWriter w = Files.newBufferedWriter(vdm, Charset.defaultCharset())) {
+            w.write("demoactions\n{");
+            w.newLine();
             int count = 1;
             int previousEndTick = 0;
-            for (Tick tick : e.getValue()) {
+            // all ticks of a demo share the same template scopes
+            Map<String, Object> scopes = null;
+            double tickInterval =
+                skipMode == SkipMode.AUTO ? tickInterval(ticks.get(0)) : DEFAULT_TICK_INTERVAL;
+            for (Tick tick : ticks) {
                 int safeStart = Math.max(0, tick.getStart() - padding);
-                if (skipMode == SkipMode.DEMO_TIMESCALE) {
-                    lines.add(segment(count++, "PlayCommands", "startskip", "starttick \""
-                        + (previousEndTick + 1) + "\"", "commands \"" + skipStart + "\""));
-                    lines.add(segment(count++, "PlayCommands", "stopskip", "starttick \"" + safeStart + "\"",
-                        "commands \"" + skipStop + "\""));
-                } else if (skipMode == SkipMode.SKIP_AHEAD) {
-                    lines.add(segment(count++, "SkipAhead", "skip", "starttick \"" + (previousEndTick + 1)
-                        + "\"", "skiptotick \"" + safeStart + "\""));
+                SkipMode gapMode = skipMode;
+                if (skipMode == SkipMode.AUTO) {
+                    gapMode = planner.choose(safeStart - previousEndTick - 1, tickInterval);
+                }
+                if (gapMode == SkipMode.DEMO_TIMESCALE) {
+                    segment(w, count++, "PlayCommands", "startskip", "starttick \""
+                        + (previousEndTick + 1) + "\"", "commands \"" + skipStart + "\"");
+                    segment(w, count++, "PlayCommands", "stopskip", "starttick \"" + safeStart + "\"",
+                        "commands \"" + skipStop + "\"");
+                } else if (gapMode == SkipMode.SKIP_AHEAD) {
+                    segment(w, count++, "SkipAhead", "skip", "starttick \"" + (previousEndTick + 1)
+                        + "\"", "skiptotick \"" + safeStart + "\"");
                 }
                 String command = "startrecording";
                 if (tick.getType().equals(Tick.EXEC_RECORD_SEGMENT)) {
@@ -126,21 +323,13 @@ class VDMGenerator {
                          * - {{NEW_LINE}} resolves into a new line.
                          */
                         log.info("Generating template #" + cfgCount + " for Tick " + tick);
-                        Map<String, Object> scopes = new HashMap<>();
-                        scopes.put("TF_PATH", cfg.getTfPath().toAbsolutePath());
-                        scopes.put("MOVIE_PATH", cfg.getMoviePath().toAbsolutePath());
-                        scopes.put("DEMO_NAME", demoCfgName);
-                        scopes.put("DEMO_PATH", tick.getDemoFile().getAbsoluteFile());
-                        scopes.put("DEMO_PATH_NOEXT", cfg.getTfPath().toAbsolutePath().resolve(demoCfgName));
-                        scopes.put("BVH_PATH", cfg.getTfPath().toAbsolutePath().resolve(demoCfgName + ".bvh"));
-                        scopes.put("LAWENA_PATH", Paths.get("").toAbsolutePath());
-                        scopes.put("NEW_LINE", "\n");
+                        if (scopes == null) {
+                            scopes = scopes(tick, demoCfgName);
+                        }
                         Path outputPath = Paths.get("cfg", demoCfgName + "_" + cfgCount + ".cfg");
                         Files.deleteIfExists(outputPath);
                         try (Writer writer = Files.newBufferedWriter(outputPath, Charset.forName("UTF-8"))) {
-                            MustacheFactory mf = new DefaultMustacheFactory();
-                            Mustache mustache = mf.compile(new StringReader(tick.getTemplate()), demoCfgName);
-                            mustache.execute(writer, scopes);
+                            compile(tick.getTemplate()).execute(writer, scopes);
                             writer.flush();
                             paths.add(outputPath);
                         } catch (IOException ex) {
@@ -149,32 +338,24 @@ class VDMGenerator {
                     }
                     command = "exec " + demoCfgName + "_" + (cfgCount++) + "; startrecording";
                 }
-                lines.add(segment(count++, "PlayCommands", "startrec", "starttick \"" + tick.getStart()
-                    + "\"", "commands \"" + command + "\""));
-                lines.add(segment(count++, "PlayCommands", "stoprec",
-                    "starttick \"" + tick.getEnd() + "\"", "commands \"stoprecording\""));
+                segment(w, count++, "PlayCommands", "startrec", "starttick \"" + tick.getStart()
+                    + "\"", "commands \"" + command + "\"");
+                segment(w, count++, "PlayCommands", "stoprec",
+                    "starttick \"" + tick.getEnd() + "\"", "commands \"stoprecording\"");
                 previousEndTick = tick.getEnd();
             }
-            String nextdemo = peeknext.get(demo);
             if (nextdemo != null) {
-                lines.add(segment(count++, "PlayCommands", "nextdem", "starttick \""
-                    + (previousEndTick + 1) + "\"", "commands \"playdemo " + nextdemo + "\""));
+                segment(w, count++, "PlayCommands", "nextdem", "starttick \""
+                    + (previousEndTick + 1) + "\"", "commands \"playdemo " + nextdemo + "\"");
             } else {
-                lines.add(segment(count++, "PlayCommands", "stopdem", "starttick \""
-                    + (previousEndTick + 1) + "\"", "commands \"stopdemo\""));
+                segment(w, count++, "PlayCommands", "stopdem", "starttick \""
+                    + (previousEndTick + 1) + "\"", "commands \"stopdemo\"");
             }
-            lines.add("}\n");
-
-            // TODO: check for potential bugs for demos located in folders other than TF dir
-            Path added =
-                Files.write(
-                    cfg.getTfPath()
-                        .resolve(Util.stripFilenameExtension(demo.replace("\\", "/")) + ".vdm"), lines,
-                    Charset.defaultCharset());
-            paths.add(added);
-            log.fine("VDM file written to " + added);
-
+            w.write("}\n");
+            w.newLine();
         }
+        paths.add(vdm);
+        log.fine("VDM file written to " + vdm);
         return paths;
     }
 }
@@ -0,0 +1,141 @@
+package lwrt;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BackupStoreTest {
+
+    private static final int FILE_SIZE = 12 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path cfg;
+    private BackupStore store;
+    private Map<String, Path> folders;
+
+    private static byte[] noise(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void assertRestored(Map<String, byte[]> expected, Path folder) throws IOException {
+        for (Map.Entry<String, byte[]> e : expected.entrySet()) {
+            assertArrayEquals(e.getKey(), e.getValue(), Files.readAllBytes(folder.resolve(e.getKey())));
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        cfg = tmp.newFolder("cfg").toPath();
+        store = new BackupStore(tmp.getRoot().toPath().resolve("backups"), 2);
+        folders = Collections.singletonMap("cfg", cfg);
+    }
+
+    private Map<String, byte[]> writeFiles() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("cfg/big.dat", noise(FILE_SIZE, 1));
+        files.put("cfg/empty.cfg", new byte[0]);
+        files.put("cfg/sub/small.cfg", "sv_cheats 1".getBytes("UTF-8"));
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            Path path = tmp.getRoot().toPath().resolve(e.getKey());
+            Files.createDirectories(path.getParent());
+            Files.write(path, e.getValue());
+        }
+        return files;
+    }
+
+    private byte[] modifyMiddle(Map<String, byte[]> files) throws IOException {
+        byte[] changed = files.get("cfg/big.dat").clone();
+        for (int i = 0; i < 100; i++) {
+            changed[FILE_SIZE / 2 + i] ^= 0x5a;
+        }
+        Path big = cfg.resolve("big.dat");
+        FileTime modified = Files.getLastModifiedTime(big);
+        Files.write(big, changed);
+        // same size, so the new time is what marks the file as changed
+        Files.setLastModifiedTime(big, FileTime.fromMillis(modified.toMillis() + 2000));
+        return changed;
+    }
+
+    @Test
+    public void restoresEachSnapshot() throws Exception {
+        Map<String, byte[]> files = writeFiles();
+        BackupStore.Snapshot first = store.backup(folders, null);
+        assertEquals(3, first.getFiles());
+        assertEquals(FILE_SIZE + 11, first.getBytes());
+
+        Map<String, byte[]> second = new LinkedHashMap<>(files);
+        second.put("cfg/big.dat", modifyMiddle(files));
+        BackupStore.Snapshot changed = store.backup(folders, null);
+        assertNotEquals(first.getId(), changed.getId());
+
+        Path target = tmp.newFolder("restore-first").toPath();
+        assertEquals(3, store.restore(first.getId(), target));
+        assertRestored(files, target);
+        target = tmp.newFolder("restore-second").toPath();
+        assertEquals(3, store.restore(changed.getId(), target));
+        assertRestored(second, target);
+        assertEquals(Files.getLastModifiedTime(cfg.resolve("big.dat")),
+            Files.getLastModifiedTime(target.resolve("cfg/big.dat")));
+    }
+
+    @Test
+    public void storesOnlyChangedChunks() throws Exception {
+        Map<String, byte[]> files = writeFiles();
+        BackupStore.Snapshot first = store.backup(folders, null);
+        assertTrue(first.getAddedBytes() >= FILE_SIZE);
+
+        BackupStore.Snapshot unchanged = store.backup(folders, null);
+        assertEquals(0, unchanged.getAddedBytes());
+
+        modifyMiddle(files);
+        BackupStore.Snapshot changed = store.backup(folders, null);
+        assertTrue("added " + changed.getAddedBytes(), changed.getAddedBytes() > 0);
+        assertTrue("added " + changed.getAddedBytes(), changed.getAddedBytes() < FILE_SIZE / 2);
+    }
+
+    @Test
+    public void pruneKeepsNewestAndCollectsChunks() throws Exception {
+        Map<String, byte[]> files = writeFiles();
+        BackupStore.Snapshot first = store.backup(folders, null);
+        Map<String, byte[]> second = new LinkedHashMap<>(files);
+        second.put("cfg/big.dat", modifyMiddle(files));
+        BackupStore.Snapshot changed = store.backup(folders, null);
+        assertEquals(2, store.list().size());
+        assertEquals(0, store.collect());
+
+        assertEquals(1, store.prune(1));
+        List<BackupStore.Snapshot> left = store.list();
+        assertEquals(1, left.size());
+        assertEquals(changed.getId(), left.get(0).getId());
+        try {
+            store.load(first.getId());
+            fail("pruned snapshot still loads");
+        } catch (IOException expected) {
+            // deleted
+        }
+        // prune already collected the chunks only the first snapshot used
+        assertEquals(0, store.collect());
+
+        Path target = tmp.newFolder("restore").toPath();
+        store.restore(changed.getId(), target);
+        assertRestored(second, target);
+
+        store.delete(changed.getId());
+        assertTrue(store.isEmpty());
+        assertTrue(store.collect() >= FILE_SIZE);
+    }
+
+}
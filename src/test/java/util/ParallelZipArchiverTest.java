@@ -0,0 +1,140 @@
+package util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class ParallelZipArchiverTest {
+
+    private static final int BLOCK_SIZE = ParallelZipArchiver.BLOCK_SIZE;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] text(int length, long seed) {
+        // a small alphabet compresses well, so blocks are really deflated and joined
+        Random random = new Random(seed);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static byte[] noise(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private Path write(Path folder, String name, byte[] data) throws IOException {
+        Path path = folder.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, data);
+        return path;
+    }
+
+    private void assertRoundTrip(int threads) throws Exception {
+        Path cfg = tmp.newFolder("cfg" + threads).toPath();
+        Path custom = tmp.newFolder("custom" + threads).toPath();
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put(cfg.getFileName() + "/empty.cfg", new byte[0]);
+        files.put(cfg.getFileName() + "/small.cfg", "bind f \"+attack\"".getBytes("UTF-8"));
+        files.put(cfg.getFileName() + "/exact.dat", text(BLOCK_SIZE, 1));
+        files.put(cfg.getFileName() + "/blocks/multi.dat", text(5 * BLOCK_SIZE + 777, 2));
+        files.put(cfg.getFileName() + "/blocks/noise.dat", noise(2 * BLOCK_SIZE + 1, 3));
+        files.put(custom.getFileName() + "/pak_dir.vpk", text(3 * BLOCK_SIZE + 10, 4));
+        files.put(custom.getFileName() + "/empty.vpk", new byte[0]);
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            write(tmp.getRoot().toPath(), e.getKey(), e.getValue());
+        }
+
+        Path zip = tmp.getRoot().toPath().resolve("out" + threads + ".zip");
+        ParallelZipArchiver.Result result = new ParallelZipArchiver(threads)
+            .archive(zip, Arrays.asList(cfg, custom, tmp.getRoot().toPath().resolve("missing")), null);
+
+        long bytes = 0;
+        for (byte[] data : files.values()) {
+            bytes += data.length;
+        }
+        assertEquals(bytes, result.getBytes());
+        // the files and the folders cfg, cfg/blocks and custom
+        assertEquals(files.size() + 3, result.getFiles());
+
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(files.size() + 3, zipFile.size());
+            assertTrue(zipFile.getEntry(cfg.getFileName() + "/blocks/").isDirectory());
+            for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                ZipEntry entry = zipFile.getEntry(e.getKey());
+                assertNotNull(e.getKey(), entry);
+                assertEquals(e.getKey(), e.getValue().length, entry.getSize());
+                assertArrayEquals(e.getKey(), e.getValue(), read(zipFile, entry));
+                int method = e.getKey().endsWith(".vpk") ? ZipEntry.STORED : ZipEntry.DEFLATED;
+                assertEquals(e.getKey(), method, entry.getMethod());
+            }
+        }
+    }
+
+    @Test
+    public void roundTripSingleThread() throws Exception {
+        assertRoundTrip(1);
+    }
+
+    @Test
+    public void roundTripParallel() throws Exception {
+        assertRoundTrip(4);
+    }
+
+    @Test
+    public void compressesAcrossBlocks() throws Exception {
+        Path folder = tmp.newFolder("demos").toPath();
+        byte[] data = text(8 * BLOCK_SIZE, 5);
+        write(folder, "repeat.dem", data);
+        Path zip = tmp.getRoot().toPath().resolve("demos.zip");
+        ParallelZipArchiver.Result result = new ParallelZipArchiver(4)
+            .archive(zip, Collections.singletonList(folder), null);
+        assertTrue(result.getCompressedBytes() < data.length / 2);
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertArrayEquals(data, read(zipFile, zipFile.getEntry("demos/repeat.dem")));
+        }
+    }
+
+    @Test
+    public void reportsProgressUpToTotal() throws Exception {
+        Path folder = tmp.newFolder("progress").toPath();
+        write(folder, "a.dat", text(3 * BLOCK_SIZE, 6));
+        final long[] last = {-1, -1};
+        new ParallelZipArchiver(2).archive(tmp.getRoot().toPath().resolve("progress.zip"),
+            Collections.singletonList(folder), (bytes, total) -> {
+                assertTrue(bytes >= last[0]);
+                last[0] = bytes;
+                last[1] = total;
+            });
+        assertEquals(3 * BLOCK_SIZE, last[0]);
+        assertEquals(3 * BLOCK_SIZE, last[1]);
+    }
+
+}
@@ -0,0 +1,146 @@
+package util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WavToolTest {
+
+    private static final int RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int BLOCK = CHANNELS * 2;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Writes a 16 bit stereo PCM file whose samples identify the segment and their position.
+     */
+    private Path wav(String name, int segment, int samples, int rate) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(44 + samples * BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put("RIFF".getBytes("US-ASCII")).putInt(36 + samples * BLOCK).put("WAVE".getBytes("US-ASCII"));
+        buf.put("fmt ".getBytes("US-ASCII")).putInt(16).putShort((short) 1).putShort((short) CHANNELS)
+            .putInt(rate).putInt(rate * BLOCK).putShort((short) BLOCK).putShort((short) 16);
+        buf.put("data".getBytes("US-ASCII")).putInt(samples * BLOCK);
+        for (int i = 0; i < samples; i++) {
+            buf.putShort((short) segment).putShort((short) (i % 30000 + 1));
+        }
+        Path path = tmp.getRoot().toPath().resolve(name);
+        Files.write(path, buf.array());
+        return path;
+    }
+
+    private static ByteBuffer data(Path wav) throws IOException {
+        WavFile file = WavFile.read(wav);
+        byte[] bytes = Files.readAllBytes(wav);
+        return ByteBuffer.wrap(bytes, (int) file.getDataOffset(), (int) file.getDataLength()).slice()
+            .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void frameSampleRoundsToNearest() {
+        assertEquals(735, WavTool.frameSample(1, 44100, 60));
+        // 367.5 samples per frame at 120 fps, halves round up
+        assertEquals(368, WavTool.frameSample(1, 44100, 120));
+        assertEquals(735, WavTool.frameSample(2, 44100, 120));
+        assertEquals(1103, WavTool.frameSample(3, 44100, 120));
+        // 306.25 samples per frame at 144 fps
+        assertEquals(306, WavTool.frameSample(1, 44100, 144));
+        assertEquals(919, WavTool.frameSample(3, 44100, 144));
+        for (int fps : new int[]{24, 30, 60, 120, 144, 240, 1000}) {
+            for (long frame = 0; frame < 5000; frame++) {
+                double exact = (double) frame * RATE / fps;
+                assertEquals(fps + " fps frame " + frame, (long) Math.floor(exact + 0.5),
+                    WavTool.frameSample(frame, RATE, fps));
+            }
+            // whole seconds land exactly on whole samples, no matter how many frames came before
+            assertEquals(3600L * RATE, WavTool.frameSample(3600L * fps, RATE, fps));
+        }
+    }
+
+    @Test
+    public void concatAlignsSegmentsToFrames() throws IOException {
+        int fps = 120;
+        // none of these are a whole number of 367.5 sample frames
+        int[] lengths = {RATE + 100, 1000, 12345, 367};
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; i < lengths.length; i++) {
+            inputs.add(wav("seg" + i + ".wav", i + 1, lengths[i], RATE));
+        }
+        Path output = tmp.getRoot().toPath().resolve("out.wav");
+        long total = WavTool.concat(inputs, output, fps);
+
+        long frames = 0;
+        for (int length : lengths) {
+            frames += (long) length * fps / RATE;
+        }
+        assertEquals(WavTool.frameSample(frames, RATE, fps), total);
+        assertEquals(total, WavFile.read(output).getSampleCount());
+        assertEquals(44 + total * BLOCK, Files.size(output));
+
+        // each segment starts on the sample of its first frame, counted from the start of the output
+        ByteBuffer out = data(output);
+        frames = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            long start = WavTool.frameSample(frames, RATE, fps);
+            frames += (long) lengths[i] * fps / RATE;
+            long end = WavTool.frameSample(frames, RATE, fps);
+            for (long s = start; s < end; s++) {
+                int position = (int) (s - start);
+                short segment = out.getShort((int) s * BLOCK);
+                short sample = out.getShort((int) s * BLOCK + 2);
+                if (position < lengths[i]) {
+                    assertEquals("segment at sample " + s, i + 1, segment);
+                    assertEquals("position at sample " + s, position % 30000 + 1, sample);
+                } else {
+                    // rounding up past the end of a segment pads it with silence
+                    assertEquals(0, segment);
+                    assertEquals(0, sample);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void concatKeepsAllSamplesWithoutFramerate() throws IOException {
+        Path a = wav("a.wav", 1, 1000, RATE);
+        Path b = wav("b.wav", 2, 333, RATE);
+        Path output = tmp.getRoot().toPath().resolve("out.wav");
+        assertEquals(1333, WavTool.concat(Arrays.asList(a, b), output, 0));
+        ByteBuffer out = data(output);
+        assertEquals(1333 * BLOCK, out.capacity());
+        assertEquals(1, out.getShort(999 * BLOCK));
+        assertEquals(2, out.getShort(1000 * BLOCK));
+        assertEquals(1, out.getShort(1000 * BLOCK + 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void concatRejectsDifferentFormats() throws IOException {
+        Path a = wav("a.wav", 1, 1000, 44100);
+        Path b = wav("b.wav", 2, 1000, 48000);
+        WavTool.concat(Arrays.asList(a, b), tmp.getRoot().toPath().resolve("out.wav"), 60);
+    }
+
+    @Test
+    public void trimCutsOnFrames() throws IOException {
+        Path input = wav("in.wav", 1, RATE, RATE);
+        Path output = tmp.getRoot().toPath().resolve("out.wav");
+        long samples = WavTool.trim(input, output, 120, 1, 3);
+        assertEquals(WavTool.frameSample(3, RATE, 120) - WavTool.frameSample(1, RATE, 120), samples);
+        ByteBuffer out = data(output);
+        assertEquals(samples * BLOCK, out.capacity());
+        assertEquals(WavTool.frameSample(1, RATE, 120) + 1, out.getShort(2));
+    }
+
+}
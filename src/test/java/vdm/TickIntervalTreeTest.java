@@ -0,0 +1,136 @@
+package vdm;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TickIntervalTreeTest {
+
+    private static final File DEMO = new File("test.dem");
+
+    private static Tick tick(int start, int end) {
+        return new Tick(DEMO, DEMO.getName(), start, end);
+    }
+
+    private static boolean overlaps(Tick tick, int start, int end) {
+        return tick.getStart() <= end && tick.getEnd() >= start;
+    }
+
+    private static boolean anyOverlap(List<Tick> ticks, int start, int end) {
+        for (Tick tick : ticks) {
+            if (overlaps(tick, start, end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLive(List<Tick> ticks, Tick tick) {
+        for (Tick t : ticks) {
+            if (t == tick) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void findsOverlapsIncludingEnds() {
+        TickIntervalTree tree = new TickIntervalTree();
+        Tick a = tick(100, 200);
+        Tick b = tick(500, 600);
+        tree.add(a);
+        tree.add(b);
+        assertSame(a, tree.findOverlap(200, 300));
+        assertSame(a, tree.findOverlap(0, 100));
+        assertSame(b, tree.findOverlap(550, 560));
+        assertSame(b, tree.findOverlap(400, 1000));
+        assertNull(tree.findOverlap(201, 499));
+        assertNull(tree.findOverlap(601, 700));
+    }
+
+    @Test
+    public void forgetsRemovedTicks() {
+        TickIntervalTree tree = new TickIntervalTree();
+        Tick outer = tick(0, 1000);
+        Tick inner = tick(400, 500);
+        tree.add(outer);
+        tree.add(inner);
+        tree.remove(outer);
+        assertEquals(1, tree.size());
+        assertSame(inner, tree.findOverlap(450, 450));
+        // only the removed tick reached this far, its end must not linger in the subtree bounds
+        assertNull(tree.findOverlap(900, 1000));
+        tree.remove(inner);
+        assertTrue(tree.isEmpty());
+        assertNull(tree.findOverlap(0, 1000));
+    }
+
+    @Test
+    public void ticksWithTheSameStartAreKeptApart() {
+        TickIntervalTree tree = new TickIntervalTree();
+        Tick shorter = tick(100, 150);
+        Tick longer = tick(100, 900);
+        tree.add(shorter);
+        tree.add(longer);
+        tree.add(longer);
+        assertEquals(2, tree.size());
+        tree.remove(shorter);
+        assertSame(longer, tree.findOverlap(800, 800));
+        assertSame(longer, tree.findOverlap(120, 120));
+        tree.remove(longer);
+        assertNull(tree.findOverlap(120, 120));
+    }
+
+    @Test
+    public void removeUsesTheTicksAsAdded() {
+        TickIntervalTree tree = new TickIntervalTree();
+        Tick tick = tick(100, 200);
+        tree.add(tick);
+        tick.setStart(5000);
+        tick.setEnd(6000);
+        tree.remove(tick);
+        assertTrue(tree.isEmpty());
+        assertNull(tree.findOverlap(150, 150));
+    }
+
+    @Test
+    public void matchesLinearSearchAfterDeletes() {
+        Random random = new Random(42);
+        TickIntervalTree tree = new TickIntervalTree();
+        List<Tick> live = new ArrayList<>();
+        for (int round = 0; round < 2000; round++) {
+            if (live.isEmpty() || random.nextInt(3) > 0) {
+                int start = random.nextInt(100000);
+                Tick tick = tick(start, start + random.nextInt(2000));
+                tree.add(tick);
+                live.add(tick);
+            } else {
+                tree.remove(live.remove(random.nextInt(live.size())));
+            }
+            assertEquals(live.size(), tree.size());
+
+            int start = random.nextInt(100000);
+            int end = start + random.nextInt(500);
+            Tick found = tree.findOverlap(start, end);
+            if (found == null) {
+                assertFalse("missed an overlap with " + start + "-" + end, anyOverlap(live, start, end));
+            } else {
+                assertTrue("found a removed tick", isLive(live, found));
+                assertTrue(overlaps(found, start, end));
+            }
+        }
+        while (!live.isEmpty()) {
+            assertNotNull(tree.findOverlap(0, Integer.MAX_VALUE));
+            tree.remove(live.remove(live.size() - 1));
+        }
+        assertTrue(tree.isEmpty());
+        assertNull(tree.findOverlap(0, Integer.MAX_VALUE));
+    }
+
+}